@@ -0,0 +1,116 @@
+/**
+ * Scores a document with Okapi BM25. Rare words count for more than common
+ * ones, repeating a word helps less every time, and long documents need more
+ * matches than short ones to score as well, relative to the average length
+ * rather than in proportion to their own.
+ *
+ * The norm of a document is {@code k1 * (1 - b + b * words / average)}, so
+ * weighing a posting takes a multiply-add and a division.
+ *
+ * @author nedimazar
+ */
+public class BM25Model implements ScoringModel {
+
+	/**
+	 * The usual saturation of repeated matches.
+	 */
+	public static final double DEFAULT_K1 = 1.2;
+
+	/**
+	 * The usual strength of length normalization.
+	 */
+	public static final double DEFAULT_B = 0.75;
+
+	/**
+	 * How quickly repeated matches stop adding to the score.
+	 */
+	private final double k1;
+
+	/**
+	 * How much document length matters, from 0 for not at all to 1 for fully.
+	 */
+	private final double b;
+
+	/**
+	 * Initializes the model with the usual parameters.
+	 */
+	public BM25Model() {
+		this(DEFAULT_K1, DEFAULT_B);
+	}
+
+	/**
+	 * Initializes the model.
+	 *
+	 * @param k1 how quickly repeated matches stop adding to the score, at least 0
+	 * @param b  how much document length matters, from 0 to 1
+	 * @throws IllegalArgumentException if a parameter is out of range
+	 */
+	public BM25Model(double k1, double b) {
+		if (!(k1 >= 0) || !(b >= 0 && b <= 1)) {
+			throw new IllegalArgumentException("BM25 needs k1 >= 0 and 0 <= b <= 1.");
+		}
+		this.k1 = k1;
+		this.b = b;
+	}
+
+	/**
+	 * Returns the inverse document frequency of the word, in the form that is
+	 * never negative even for words in more than half of the documents.
+	 */
+	@Override
+	public double getTermWeight(int documentFrequency, int documentCount) {
+		double frequency = Math.min(documentFrequency, documentCount);
+		return Math.log(1 + (documentCount - frequency + 0.5) / (frequency + 0.5));
+	}
+
+	@Override
+	public double getNorm(int wordCount, double averageWordCount) {
+		if (averageWordCount <= 0) {
+			return this.k1;
+		}
+		return this.k1 * (1 - this.b + this.b * wordCount / averageWordCount);
+	}
+
+	@Override
+	public boolean weighsPostings() {
+		return true;
+	}
+
+	@Override
+	public double weigh(double frequency, double termWeight, double norm) {
+		return termWeight * frequency * (this.k1 + 1) / (frequency + norm);
+	}
+
+	/**
+	 * Returns the summed weight itself.
+	 */
+	@Override
+	public double score(double weight, double norm) {
+		return weight;
+	}
+
+	/**
+	 * Bounds the weight of a posting whose frequency is at most the largest
+	 * ratio times its word count. For a fixed ratio the weight only grows with
+	 * the length of the document, towards
+	 * {@code termWeight * (k1 + 1) * ratio / (ratio + k1 * b / average)}.
+	 */
+	@Override
+	public double getMaxScore(double termWeight, double maxRatio, double averageWordCount) {
+		double saturated = termWeight * (this.k1 + 1);
+
+		if (Double.isInfinite(maxRatio) || averageWordCount <= 0) {
+			return saturated;
+		}
+
+		if (maxRatio <= 0) {
+			return 0;
+		}
+		return saturated * maxRatio / (maxRatio + this.k1 * this.b / averageWordCount);
+	}
+
+	@Override
+	public String toString() {
+		return "BM25 (k1 = " + this.k1 + ", b = " + this.b + ")";
+	}
+}
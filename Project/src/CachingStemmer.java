@@ -0,0 +1,337 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * A stemmer that remembers the stems of the words it has seen, so common words
+ * are only stemmed once. Safe to share between any number of threads.
+ *
+ * The cache is kept in two generations. New stems go into the young one, and
+ * stems found in the old one are copied back into the young one. When the
+ * young generation is full it becomes the old one and the previous old one is
+ * dropped, so words that stop coming up are evicted while frequent ones stay
+ * cached. The cache never holds more than twice its generation size.
+ *
+ * Words are looked up by their characters through a reused probe of each
+ * thread, so a word that is already cached is found without copying it into a
+ * {@link String}. Only a word that has to be stemmed is copied, once, and the
+ * cached entry is shared by both generations from then on.
+ *
+ * @author nedimazar
+ */
+public class CachingStemmer implements Stemmer {
+
+	/**
+	 * The number of stems kept in each generation by default.
+	 */
+	public static final int DEFAULT_GENERATION = 50000;
+
+	/**
+	 * The cache shared by everything that stems English text.
+	 */
+	public static final CachingStemmer ENGLISH = new CachingStemmer(SnowballStemmer.ALGORITHM.ENGLISH,
+			DEFAULT_GENERATION);
+
+	/**
+	 * The estimated bytes a cached entry takes besides its characters: the map
+	 * node, the cached word and two strings with their arrays.
+	 */
+	private static final int ENTRY_OVERHEAD = 32 + 24 + 2 * (24 + 16);
+
+	/**
+	 * The stemmer of each thread, since stemmers keep state between calls.
+	 */
+	private final ThreadLocal<Stemmer> stemmers;
+
+	/**
+	 * The probe each thread looks up words with.
+	 */
+	private final ThreadLocal<Word> probes;
+
+	/**
+	 * The number of stems kept in each generation.
+	 */
+	private final int generation;
+
+	/**
+	 * The stems added since the last rotation, each cached word mapped to
+	 * itself.
+	 */
+	private volatile ConcurrentHashMap<Word, Word> young;
+
+	/**
+	 * The stems added before the last rotation, each cached word mapped to
+	 * itself.
+	 */
+	private volatile ConcurrentHashMap<Word, Word> old;
+
+	/**
+	 * The number of words found in the cache.
+	 */
+	private final LongAdder hits;
+
+	/**
+	 * The number of words that had to be stemmed.
+	 */
+	private final LongAdder misses;
+
+	/**
+	 * The number of stems dropped from the cache.
+	 */
+	private final LongAdder evictions;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param algorithm  the stemming algorithm
+	 * @param generation the number of stems to keep in each generation
+	 */
+	public CachingStemmer(SnowballStemmer.ALGORITHM algorithm, int generation) {
+		if (generation < 1) {
+			throw new IllegalArgumentException("The generation size must be positive: " + generation);
+		}
+
+		this.stemmers = ThreadLocal.withInitial(() -> new SnowballStemmer(algorithm));
+		this.probes = ThreadLocal.withInitial(Word::new);
+		this.generation = generation;
+		this.young = new ConcurrentHashMap<>();
+		this.old = new ConcurrentHashMap<>();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+	}
+
+	/**
+	 * Returns the stem of a word, from the cache if possible.
+	 *
+	 * @param word the word to stem
+	 * @return the stem, as a {@link String}
+	 */
+	@Override
+	public CharSequence stem(CharSequence word) {
+		Word probe = this.probes.get().set(word);
+		ConcurrentHashMap<Word, Word> young = this.young;
+		Word cached = young.get(probe);
+
+		if (cached != null) {
+			this.hits.increment();
+			return cached.stem;
+		}
+
+		cached = this.old.get(probe);
+
+		if (cached != null) {
+			this.hits.increment();
+		} else {
+			this.misses.increment();
+			String key = word.toString();
+			cached = new Word(key, this.stemmers.get().stem(key).toString());
+		}
+
+		young.put(cached, cached);
+
+		if (young.size() >= this.generation) {
+			rotate(young);
+		}
+		return cached.stem;
+	}
+
+	/**
+	 * Makes a full young generation the old one, dropping the old one, unless
+	 * another thread already did.
+	 *
+	 * @param full the young generation that filled up
+	 */
+	private synchronized void rotate(ConcurrentHashMap<Word, Word> full) {
+		if (this.young == full) {
+			this.evictions.add(this.old.size());
+			this.old = full;
+			this.young = new ConcurrentHashMap<>();
+		}
+	}
+
+	/**
+	 * Returns the number of words found in the cache.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * Returns the number of words that were not cached and had to be stemmed.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * Returns the number of stems dropped from the cache.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return this.evictions.sum();
+	}
+
+	/**
+	 * Returns the share of words found in the cache.
+	 *
+	 * @return the hit rate between 0 and 1, or 0 if nothing was stemmed yet
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the number of stems cached. A word cached in both generations is
+	 * counted twice.
+	 *
+	 * @return the number of cached stems
+	 */
+	public int size() {
+		return this.young.size() + this.old.size();
+	}
+
+	/**
+	 * Estimates the memory used by the cached stems, by adding up the
+	 * characters of every cached word and stem and a fixed overhead per entry.
+	 *
+	 * @return the estimated number of bytes
+	 */
+	public long getMemoryEstimate() {
+		return estimate(this.young) + estimate(this.old);
+	}
+
+	/**
+	 * Estimates the memory used by one generation.
+	 *
+	 * @param cache the generation
+	 * @return the estimated number of bytes
+	 */
+	private static long estimate(Map<Word, Word> cache) {
+		long bytes = 0;
+
+		for (Word word : cache.keySet()) {
+			bytes += ENTRY_OVERHEAD + word.chars.length() + word.stem.length();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Empties the cache and resets the counters.
+	 */
+	public synchronized void clear() {
+		this.young = new ConcurrentHashMap<>();
+		this.old = new ConcurrentHashMap<>();
+		this.hits.reset();
+		this.misses.reset();
+		this.evictions.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d stems cached (~%d KiB), hit rate %.1f%%, %d hits, %d misses, %d evicted", size(),
+				getMemoryEstimate() / 1024, 100 * getHitRate(), getHits(), getMisses(), getEvictions());
+	}
+
+	/**
+	 * A word as a cache key, equal to any other with the same characters. A
+	 * cached word holds a {@link String} and its stem; a probe holds whatever
+	 * sequence is being looked up, and is never put in the cache.
+	 *
+	 * @author nedimazar
+	 */
+	private static class Word {
+
+		/**
+		 * The characters of the word.
+		 */
+		private CharSequence chars;
+
+		/**
+		 * The hash of the characters, the same as {@link String#hashCode()}.
+		 */
+		private int hash;
+
+		/**
+		 * The stem of the word, or null for a probe.
+		 */
+		private final String stem;
+
+		/**
+		 * Initializes an empty probe.
+		 */
+		public Word() {
+			this.chars = "";
+			this.hash = 0;
+			this.stem = null;
+		}
+
+		/**
+		 * Initializes a cached word.
+		 *
+		 * @param word the word
+		 * @param stem the stem of the word
+		 */
+		public Word(String word, String stem) {
+			this.chars = word;
+			this.hash = word.hashCode();
+			this.stem = stem;
+		}
+
+		/**
+		 * Points a probe at the characters to look up.
+		 *
+		 * @param chars the characters, which must not change until the lookup
+		 *              is over
+		 * @return this probe
+		 */
+		public Word set(CharSequence chars) {
+			int hash = 0;
+			for (int i = 0; i < chars.length(); i++) {
+				hash = 31 * hash + chars.charAt(i);
+			}
+			this.chars = chars;
+			this.hash = hash;
+			return this;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Word)) {
+				return false;
+			}
+
+			Word word = (Word) other;
+			int length = this.chars.length();
+
+			if (word.hash != this.hash || word.chars.length() != length) {
+				return false;
+			}
+
+			for (int i = 0; i < length; i++) {
+				if (word.chars.charAt(i) != this.chars.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
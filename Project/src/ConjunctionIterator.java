@@ -0,0 +1,108 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Walks the documents that every one of several posting iterators contains.
+ * The iterator with the fewest postings leads, and the others are only asked
+ * to {@link PostingIterator#advance(int)} to its documents, so lists that can
+ * jump ahead are never walked in full and the cost of an intersection follows
+ * the shortest list.
+ *
+ * The frequency and weight of a document are the sums of those of every
+ * iterator.
+ *
+ * @author nedimazar
+ */
+public class ConjunctionIterator implements PostingIterator {
+
+	/**
+	 * The iterators, fewest postings first.
+	 */
+	private final PostingIterator[] iterators;
+
+	/**
+	 * The current document.
+	 */
+	private int document;
+
+	/**
+	 * Initializes an iterator over the documents common to every iterator.
+	 *
+	 * @param postings the iterators to intersect, none of which have been
+	 *                 advanced; must not be empty
+	 */
+	public ConjunctionIterator(Collection<PostingIterator> postings) {
+		this.iterators = postings.toArray(new PostingIterator[0]);
+		Arrays.sort(this.iterators, Comparator.comparingInt(PostingIterator::getDocumentFrequency));
+		this.document = -1;
+	}
+
+	@Override
+	public int nextDocument() {
+		return align(this.iterators[0].nextDocument());
+	}
+
+	@Override
+	public int advance(int target) {
+		return align(this.iterators[0].advance(target));
+	}
+
+	@Override
+	public int getDocument() {
+		return this.document;
+	}
+
+	@Override
+	public int getFrequency() {
+		int frequency = 0;
+		for (PostingIterator iterator : this.iterators) {
+			frequency += iterator.getFrequency();
+		}
+		return frequency;
+	}
+
+	@Override
+	public double getWeight() {
+		double weight = 0;
+		for (PostingIterator iterator : this.iterators) {
+			weight += iterator.getWeight();
+		}
+		return weight;
+	}
+
+	@Override
+	public int getDocumentFrequency() {
+		return this.iterators[0].getDocumentFrequency();
+	}
+
+	/**
+	 * Moves every other iterator to the document of the leading one, moving the
+	 * leading one on whenever another iterator passes it, until they all agree.
+	 *
+	 * @param target the document the leading iterator is on
+	 * @return the first document common to every iterator, or
+	 *         {@link PostingIterator#NO_MORE_DOCUMENTS}
+	 */
+	private int align(int target) {
+		int i = 1;
+
+		while (target != NO_MORE_DOCUMENTS && i < this.iterators.length) {
+			int document = this.iterators[i].getDocument();
+
+			if (document < target) {
+				document = this.iterators[i].advance(target);
+			}
+
+			if (document > target) {
+				target = this.iterators[0].advance(document);
+				i = 1;
+			} else {
+				i++;
+			}
+		}
+
+		this.document = target;
+		return target;
+	}
+}
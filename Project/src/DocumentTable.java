@@ -0,0 +1,346 @@
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps every location (file path or URL) stored in an inverted index to a
+ * dense integer document id, and keeps the word count of each document in an
+ * array indexed by that id. Locations are stored once here instead of once per
+ * word that appears in them.
+ *
+ * Removed documents are marked in a bitset of tombstones rather than taken out,
+ * since their postings are spread over every word they contain. A removed
+ * location that is added again gets a new id, so its old postings are never
+ * mistaken for new ones. Tombstones stay set for good; once the postings of a
+ * removed document are gone, {@link #purge(BitSet)} drops its location and
+ * count too.
+ *
+ * The rank of every location in sorted order is worked out when first asked
+ * for and kept until a document is added.
+ *
+ * @author nedimazar
+ */
+public class DocumentTable {
+
+	/**
+	 * The initial capacity of the arrays.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Maps locations to their document ids.
+	 */
+	private final HashMap<String, Integer> ids;
+
+	/**
+	 * The location of each document, indexed by document id.
+	 */
+	private String[] locations;
+
+	/**
+	 * The word count of each document, indexed by document id.
+	 */
+	private int[] counts;
+
+	/**
+	 * The number of documents stored.
+	 */
+	private int size;
+
+	/**
+	 * The rank of the location of each document in sorted order, or null if
+	 * documents were added since it was last worked out.
+	 */
+	private int[] ranks;
+
+	/**
+	 * The summed word count of every document not removed.
+	 */
+	private long total;
+
+	/**
+	 * The ids of removed documents.
+	 */
+	private final BitSet deleted;
+
+	/**
+	 * The number of documents removed.
+	 */
+	private int deletions;
+
+	/**
+	 * The number of removed documents whose postings are gone.
+	 */
+	private int purged;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public DocumentTable() {
+		this.ids = new HashMap<>();
+		this.locations = new String[INITIAL_CAPACITY];
+		this.counts = new int[INITIAL_CAPACITY];
+		this.size = 0;
+		this.total = 0;
+		this.deleted = new BitSet();
+		this.deletions = 0;
+		this.purged = 0;
+	}
+
+	/**
+	 * Returns the id of a location, assigning the next free id if the location
+	 * has not been seen before or was removed.
+	 *
+	 * @param location the location to look up
+	 * @return the document id of the location
+	 */
+	public int add(String location) {
+		Integer id = this.ids.get(location);
+
+		if (id != null && !this.deleted.get(id)) {
+			return id;
+		}
+
+		if (this.size == this.locations.length) {
+			int capacity = this.size + (this.size >> 1);
+			this.locations = Arrays.copyOf(this.locations, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+		}
+
+		this.locations[this.size] = location;
+		this.ids.put(location, this.size);
+		this.ranks = null;
+		return this.size++;
+	}
+
+	/**
+	 * Returns the id of a location.
+	 *
+	 * @param location the location to look up
+	 * @return the document id, or -1 if the location is not stored or was
+	 *         removed
+	 */
+	public int getId(String location) {
+		Integer id = this.ids.get(location);
+		return id == null || this.deleted.get(id) ? -1 : id;
+	}
+
+	/**
+	 * Returns the location of a document.
+	 *
+	 * @param id the document id
+	 * @return the location of the document
+	 */
+	public String getLocation(int id) {
+		return this.locations[id];
+	}
+
+	/**
+	 * Returns the word count of a document.
+	 *
+	 * @param id the document id
+	 * @return the number of words in the document
+	 */
+	public int getCount(int id) {
+		return this.counts[id];
+	}
+
+	/**
+	 * Returns the rank of the location of a document among every location
+	 * stored, in sorted order. Sorts the locations the first time it is called
+	 * after a document is added.
+	 *
+	 * @param id the document id
+	 * @return the rank of the location of the document
+	 */
+	public int getRank(int id) {
+		if (this.ranks == null) {
+			Integer[] sorted = new Integer[this.size];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = i;
+			}
+
+			// purged documents have no location and sort first
+			Arrays.sort(sorted, (a, b) -> this.locations[a] == null || this.locations[b] == null
+					? Boolean.compare(this.locations[a] != null, this.locations[b] != null)
+					: this.locations[a].compareTo(this.locations[b]));
+
+			int[] ranks = new int[this.size];
+			for (int i = 0; i < sorted.length; i++) {
+				ranks[sorted[i]] = i;
+			}
+			this.ranks = ranks;
+		}
+		return this.ranks[id];
+	}
+
+	/**
+	 * Raises the word count of a document to the given position if it is larger.
+	 *
+	 * @param id       the document id
+	 * @param position a position of a word in the document
+	 */
+	public void updateCount(int id, int position) {
+		if (position > this.counts[id]) {
+			if (!this.deleted.get(id)) {
+				this.total += position - this.counts[id];
+			}
+			this.counts[id] = position;
+		}
+	}
+
+	/**
+	 * Removes a location by marking its document id as deleted.
+	 *
+	 * @param location the location to remove
+	 * @return the id of the removed document, or -1 if the location is not
+	 *         stored
+	 */
+	public int delete(String location) {
+		int id = getId(location);
+
+		if (id >= 0) {
+			this.deleted.set(id);
+			this.deletions++;
+			this.total -= this.counts[id];
+		}
+		return id;
+	}
+
+	/**
+	 * Checks whether a document was removed.
+	 *
+	 * @param id the document id
+	 * @return true if the document was removed
+	 */
+	public boolean isDeleted(int id) {
+		return this.deleted.get(id);
+	}
+
+	/**
+	 * Returns the ids of every removed document.
+	 *
+	 * @return a copy of the tombstones
+	 */
+	public BitSet getDeleted() {
+		return (BitSet) this.deleted.clone();
+	}
+
+	/**
+	 * Checks whether any document was ever removed.
+	 *
+	 * @return true if some id is marked as deleted
+	 */
+	public boolean hasDeletions() {
+		return this.deletions > 0;
+	}
+
+	/**
+	 * Returns the number of removed documents whose postings may still be
+	 * stored, which searches have to skip.
+	 *
+	 * @return the number of tombstones not yet purged
+	 */
+	public int getTombstoneCount() {
+		return this.deletions - this.purged;
+	}
+
+	/**
+	 * Returns the number of documents whose postings may be stored, removed or
+	 * not.
+	 *
+	 * @return the number of documents not yet purged
+	 */
+	public int getStoredCount() {
+		return this.size - this.purged;
+	}
+
+	/**
+	 * Returns the number of documents not removed.
+	 *
+	 * @return the number of live documents
+	 */
+	public int getLiveCount() {
+		return this.size - this.deletions;
+	}
+
+	/**
+	 * Returns the average word count of the documents not removed. Kept as a
+	 * running total, so this takes constant time.
+	 *
+	 * @return the average number of words in a live document, or 0 if there are
+	 *         none
+	 */
+	public double getAverageCount() {
+		int live = getLiveCount();
+		return live == 0 ? 0 : (double) this.total / live;
+	}
+
+	/**
+	 * Drops the location and count of removed documents whose postings are
+	 * gone. Their ids stay marked as deleted and are never used again.
+	 *
+	 * @param ids the ids of removed documents no longer in any posting
+	 */
+	public void purge(BitSet ids) {
+		for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+			if (this.locations[id] != null) {
+				this.ids.remove(this.locations[id], id);
+				this.locations[id] = null;
+				this.counts[id] = 0;
+				this.purged++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of documents stored.
+	 *
+	 * @return the number of documents
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Reads documents written by {@link InvertedIndex#writeBinary(java.nio.file.Path)}
+	 * and adds them to this table.
+	 *
+	 * @param input where to read from
+	 * @return maps the document ids read to their ids in this table
+	 * @throws IOException if unable to read
+	 */
+	public int[] read(DataInput input) throws IOException {
+		int[] remap = new int[Varint.read(input)];
+
+		for (int id = 0; id < remap.length; id++) {
+			remap[id] = add(input.readUTF());
+			updateCount(remap[id], Varint.read(input));
+		}
+
+		return remap;
+	}
+
+	/**
+	 * Returns the word counts keyed by location, sorted by location. Removed
+	 * documents are left out.
+	 *
+	 * @return an unmodifiable map of locations to word counts
+	 */
+	public Map<String, Integer> getCounts() {
+		TreeMap<String, Integer> map = new TreeMap<>();
+
+		for (int id = 0; id < this.size; id++) {
+			if (!this.deleted.get(id)) {
+				map.put(this.locations[id], this.counts[id]);
+			}
+		}
+
+		return Collections.unmodifiableMap(map);
+	}
+}
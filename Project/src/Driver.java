@@ -31,17 +31,20 @@ public class Driver {
 	 *
 	 */
 	public static void main(String[] args) {
-		int numThreads;
+		int numThreads = 0;
 		/* Store initial start time */
 		Instant start = Instant.now();
 		ArgumentParser argumentParser = new ArgumentParser(args);
 		InvertedIndex invertedIndex;
 		InvertedIndexBuilder builder;
 		QueryBuilderInterface queryBuilder;
-		WebCrawler webCrawler;
+		ThreadSafeInvertedIndex threadSafe = null;
+		WebCrawler webCrawler = null;
 		SearchServlet searchServlet;
+		boolean positions = !argumentParser.hasFlag("-nopositions");
 
-		if (argumentParser.hasFlag("-threads") || argumentParser.hasFlag("-url") || argumentParser.hasFlag("-port")) {
+		if (argumentParser.hasFlag("-threads") || argumentParser.hasFlag("-url") || argumentParser.hasFlag("-port")
+				|| argumentParser.hasFlag("-watch")) {
 
 			try {
 				numThreads = Integer.parseInt(argumentParser.getString("-threads"));
@@ -52,10 +55,22 @@ public class Driver {
 				numThreads = 5;
 			}
 
-			ThreadSafeInvertedIndex threadSafe = new ThreadSafeInvertedIndex();
+			threadSafe = new ThreadSafeInvertedIndex(positions);
 			invertedIndex = threadSafe;
-			builder = new ThreadSafeIndexBuilder(threadSafe, numThreads);
-			queryBuilder = new ThreadSafeQueryBuilder(threadSafe, numThreads);
+			long chunkThreshold = ThreadSafeIndexBuilder.DEFAULT_CHUNK_THRESHOLD;
+			if (argumentParser.hasFlag("-chunk")) {
+				try {
+					long megabytes = Long.parseLong(argumentParser.getString("-chunk"));
+					if (megabytes < 1 || megabytes > Long.MAX_VALUE >> 20) {
+						throw new NumberFormatException("Out of range: " + megabytes);
+					}
+					chunkThreshold = megabytes << 20;
+				} catch (Exception e) {
+					System.out.println("Invalid chunk threshold, using the default of "
+							+ (ThreadSafeIndexBuilder.DEFAULT_CHUNK_THRESHOLD >> 20) + " MiB.");
+				}
+			}
+			builder = new ThreadSafeIndexBuilder(threadSafe, numThreads, chunkThreshold);
 
 			if (argumentParser.hasFlag("-limit")) {
 				webCrawler = new WebCrawler(threadSafe, numThreads,
@@ -63,70 +78,89 @@ public class Driver {
 			} else {
 				webCrawler = new WebCrawler(threadSafe, numThreads, 50);
 			}
+		} else {
+			invertedIndex = new InvertedIndex(positions);
+			builder = new InvertedIndexBuilder(invertedIndex);
+		}
 
-			if (argumentParser.hasFlag("-url")) {
-				try {
-					URL seedURL = new URL(argumentParser.getString("-url"));
-					webCrawler.traverse(seedURL);
-				} catch (Exception e) {
-					System.out.println(
-							"Something went wrong while creating a URL from: " + argumentParser.getString("-url"));
-				}
+		if (argumentParser.hasFlag("-load")) {
+			Path path = argumentParser.getPath("-load", Path.of("index.bin"));
+			try {
+				invertedIndex.readBinary(path);
+			} catch (IOException e) {
+				System.out.println("There was an issue while loading the binary index from file: " + path.toString());
 			}
+		}
 
-			if (argumentParser.hasFlag("-port")) {
-				searchServlet = new SearchServlet(queryBuilder, threadSafe, webCrawler);
-
-				int port;
-
-				try {
-					port = Integer.parseInt(argumentParser.getString("-port"));
-				} catch (Exception e) {
-					port = 8081;
-				}
-
-				try {
-					ServletContextHandler servletContextHandler = null;
-
-					servletContextHandler = new ServletContextHandler(ServletContextHandler.SESSIONS);
-					servletContextHandler.setContextPath("/");
+		if (webCrawler != null && argumentParser.hasFlag("-url")) {
+			try {
+				URL seedURL = new URL(argumentParser.getString("-url"));
+				webCrawler.traverse(seedURL);
+			} catch (Exception e) {
+				System.out.println(
+						"Something went wrong while creating a URL from: " + argumentParser.getString("-url"));
+			}
+		}
 
-					DefaultHandler defaultHandler = new DefaultHandler();
-					defaultHandler.setServeIcon(true);
+		IndexWatcher watcher = null;
 
-					ContextHandler contextHandler = new ContextHandler("/favicon.ico");
-					contextHandler.setHandler(defaultHandler);
+		if (argumentParser.hasFlag("-path") && argumentParser.getPath("-path") != null) {
+			Path path = argumentParser.getPath("-path");
 
-					ServletHolder servletHolder = new ServletHolder(searchServlet);
+			if (argumentParser.hasFlag("-watch")) {
+				watcher = new IndexWatcher(path, threadSafe);
+			}
 
-					ServletHandler servletHandler = new ServletHandler();
-					servletHandler.addServletWithMapping(servletHolder, "/");
+			try {
+				builder.traversePath(path);
+			} catch (IOException e) {
+				System.out.println("Path can not be traversed: " + path.toString());
+			}
+		}
 
-					Server server = new Server(port);
-					server.setHandler(servletHandler);
-					server.start();
-					server.join();
+		if (argumentParser.hasFlag("-mmap")) {
+			Path path = argumentParser.getPath("-mmap", Path.of("index.seg"));
+			try {
+				invertedIndex = MappedInvertedIndex.open(path);
+			} catch (IOException e) {
+				System.out.println("There was an issue while mapping the index segment: " + path.toString());
+			}
+		}
 
-				} catch (Exception e) {
-					System.err.println("Jetty server Did not work");
-				}
+		if (argumentParser.hasFlag("-bm25")) {
+			invertedIndex.setScoringModel(new BM25Model());
+		}
 
+		if (argumentParser.hasFlag("-save")) {
+			Path path = argumentParser.getPath("-save", Path.of("index.bin"));
+			try {
+				invertedIndex.writeBinary(path);
+			} catch (IOException e) {
+				System.out.println("There was an issue while saving the binary index to file: " + path.toString());
 			}
-		} else {
-			invertedIndex = new InvertedIndex();
-			builder = new InvertedIndexBuilder(invertedIndex);
-			queryBuilder = new QueryBuilder(invertedIndex);
 		}
 
-		if (argumentParser.hasFlag("-path") && argumentParser.getPath("-path") != null) {
-			Path path = argumentParser.getPath("-path");
+		if (argumentParser.hasFlag("-segment")) {
+			Path path = argumentParser.getPath("-segment", Path.of("index.seg"));
 			try {
-				builder.traversePath(path);
+				invertedIndex.writeSegment(path);
 			} catch (IOException e) {
-				System.out.println("Path can not be traversed: " + path.toString());
+				System.out.println("There was an issue while writing the index segment to file: " + path.toString());
 			}
 		}
 
+		if (watcher != null) {
+			watcher.start();
+		} else if (argumentParser.hasFlag("-query") || argumentParser.hasFlag("-port")) {
+			invertedIndex = invertedIndex.freeze();
+		}
+
+		if (threadSafe != null) {
+			queryBuilder = new ThreadSafeQueryBuilder(invertedIndex, numThreads);
+		} else {
+			queryBuilder = new QueryBuilder(invertedIndex);
+		}
+
 		if (argumentParser.hasFlag("-index")) {
 			Path path = argumentParser.getPath("-index", Path.of("index.json"));
 			try {
@@ -169,5 +203,43 @@ public class Driver {
 		Duration elapsed = Duration.between(start, Instant.now());
 		double seconds = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
 		System.out.printf("Elapsed: %f seconds%n", seconds);
+
+		if (threadSafe != null && argumentParser.hasFlag("-port")) {
+			searchServlet = new SearchServlet(queryBuilder, invertedIndex);
+
+			int port;
+
+			try {
+				port = Integer.parseInt(argumentParser.getString("-port"));
+			} catch (Exception e) {
+				port = 8081;
+			}
+
+			try {
+				ServletContextHandler servletContextHandler = null;
+
+				servletContextHandler = new ServletContextHandler(ServletContextHandler.SESSIONS);
+				servletContextHandler.setContextPath("/");
+
+				DefaultHandler defaultHandler = new DefaultHandler();
+				defaultHandler.setServeIcon(true);
+
+				ContextHandler contextHandler = new ContextHandler("/favicon.ico");
+				contextHandler.setHandler(defaultHandler);
+
+				ServletHolder servletHolder = new ServletHolder(searchServlet);
+
+				ServletHandler servletHandler = new ServletHandler();
+				servletHandler.addServletWithMapping(servletHolder, "/");
+
+				Server server = new Server(port);
+				server.setHandler(servletHandler);
+				server.start();
+				server.join();
+
+			} catch (Exception e) {
+				System.err.println("Jetty server Did not work");
+			}
+		}
 	}
 }
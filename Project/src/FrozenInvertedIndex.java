@@ -0,0 +1,640 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable inverted index laid out for searching. Words are kept in a
+ * front-coded {@link TermDictionary}, and the postings of every word, found by
+ * its ordinal in the dictionary, are packed back to back into
+ * shared arrays of document ids, term frequencies and encoded positions. Word
+ * counts and the norms of the scoring model are precomputed per document.
+ * Nothing but the scoring model changes after construction, so searches need
+ * no locking at all. An index that stores only counts leaves
+ * out the positions arrays.
+ *
+ * Created by {@link InvertedIndex#freeze()}.
+ *
+ * @author nedimazar
+ */
+public class FrozenInvertedIndex extends InvertedIndex {
+
+	/**
+	 * Every word, sorted.
+	 */
+	private final TermDictionary words;
+
+	/**
+	 * Where the postings of each word start, with one extra entry marking the
+	 * end of the last word.
+	 */
+	private final int[] starts;
+
+	/**
+	 * The document id of every posting.
+	 */
+	private final int[] documents;
+
+	/**
+	 * The term frequency of every posting.
+	 */
+	private final int[] frequencies;
+
+	/**
+	 * Where the encoded positions of each posting start, with one extra entry
+	 * marking the end of the last posting, or null without positions.
+	 */
+	private final int[] positionStarts;
+
+	/**
+	 * The encoded positions of every posting, or null without positions.
+	 */
+	private final byte[] positions;
+
+	/**
+	 * The largest term frequency over document word count of each word.
+	 */
+	private final double[] maxScores;
+
+	/**
+	 * The location of each document.
+	 */
+	private final String[] locations;
+
+	/**
+	 * The word count of each document.
+	 */
+	private final int[] counts;
+
+	/**
+	 * The average word count of a document.
+	 */
+	private final double average;
+
+	/**
+	 * The norm of each document under the scoring model.
+	 * Set just before the model, whose volatile write publishes it.
+	 */
+	private double[] norms;
+
+	/**
+	 * The document ids sorted by location.
+	 */
+	private final int[] sorted;
+
+	/**
+	 * The position of each document in {@link #sorted}.
+	 */
+	private final int[] ranks;
+
+	/**
+	 * The merged postings of the short prefixes searched so far.
+	 */
+	private final ConcurrentHashMap<String, MergedPostings> merged;
+
+	/**
+	 * Packs the postings and documents of a mutable index. Removed documents
+	 * are left out and the others are numbered again without gaps, so the copy
+	 * has nothing to skip.
+	 *
+	 * @param invertedIndex the postings of every word, sorted by word
+	 * @param table         the documents the postings refer to
+	 * @param positions     whether the postings keep positions
+	 */
+	public FrozenInvertedIndex(SortedMap<String, PostingList> invertedIndex, DocumentTable table,
+			boolean positions) {
+		this(invertedIndex, table, positions, 0, table.size(), false);
+	}
+
+	/**
+	 * Packs the postings of the documents with ids from {@code first} up to
+	 * {@code last}, as one segment of a larger index. Each document keeps its
+	 * id less {@code first}, so removed documents leave gaps with no location
+	 * and no postings.
+	 *
+	 * @param invertedIndex the postings of every word in the range, sorted by
+	 *                      word
+	 * @param table         the documents the postings refer to
+	 * @param positions     whether the postings keep positions
+	 * @param first         the first document id in the range
+	 * @param last          the document id just past the range
+	 */
+	public FrozenInvertedIndex(SortedMap<String, PostingList> invertedIndex, DocumentTable table,
+			boolean positions, int first, int last) {
+		this(invertedIndex, table, positions, first, last, true);
+	}
+
+	/**
+	 * Packs the postings of a range of documents.
+	 *
+	 * @param invertedIndex the postings of every word in the range, sorted by
+	 *                      word
+	 * @param table         the documents the postings refer to
+	 * @param positions     whether the postings keep positions
+	 * @param first         the first document id in the range
+	 * @param last          the document id just past the range
+	 * @param gaps          true to keep ids, false to number the documents not
+	 *                      removed again without gaps
+	 */
+	private FrozenInvertedIndex(SortedMap<String, PostingList> invertedIndex, DocumentTable table,
+			boolean positions, int first, int last, boolean gaps) {
+		super(positions);
+
+		BitSet deleted = table.getDeleted();
+		int[] remap = new int[last - first];
+		int live = 0;
+
+		for (int id = 0; id < remap.length; id++) {
+			if (deleted.get(first + id)) {
+				remap[id] = -1;
+			} else {
+				remap[id] = gaps ? id : live;
+				live++;
+			}
+		}
+
+		this.locations = new String[gaps ? remap.length : live];
+		this.counts = new int[this.locations.length];
+
+		for (int id = 0; id < remap.length; id++) {
+			if (remap[id] >= 0) {
+				this.locations[remap[id]] = table.getLocation(first + id);
+				this.counts[remap[id]] = table.getCount(first + id);
+			}
+		}
+
+		long total = 0;
+		for (int count : this.counts) {
+			total += count;
+		}
+		this.average = live == 0 ? 0 : (double) total / live;
+		this.norms = computeNorms(getScoringModel());
+
+		ArrayList<String> words = new ArrayList<>(invertedIndex.size());
+		BitSet found = new BitSet(invertedIndex.size());
+		int postings = 0;
+		long bytes = 0;
+		int index = 0;
+
+		for (Map.Entry<String, PostingList> entry : invertedIndex.entrySet()) {
+			PostingList list = entry.getValue();
+			int kept = 0;
+
+			for (int i = 0; i < list.size(); i++) {
+				if (remap[list.getDocument(i) - first] >= 0) {
+					bytes += positions ? list.getPositions(i).byteSize() : 0;
+					kept++;
+				}
+			}
+
+			if (kept > 0) {
+				found.set(index);
+				words.add(entry.getKey());
+				postings += kept;
+			}
+			index++;
+		}
+
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many positions to freeze into one index.");
+		}
+
+		this.words = TermDictionary.of(words);
+		this.starts = new int[words.size() + 1];
+		this.maxScores = new double[words.size()];
+		this.documents = new int[postings];
+		this.frequencies = new int[postings];
+		this.positionStarts = positions ? new int[postings + 1] : null;
+		this.positions = positions ? new byte[(int) bytes] : null;
+
+		int word = 0;
+		int posting = 0;
+		int offset = 0;
+		index = 0;
+
+		for (PostingList list : invertedIndex.values()) {
+			if (!found.get(index++)) {
+				continue;
+			}
+
+			double max = 0;
+			this.starts[word] = posting;
+
+			for (int i = 0; i < list.size(); i++) {
+				int document = remap[list.getDocument(i) - first];
+
+				if (document < 0) {
+					continue;
+				}
+
+				this.documents[posting] = document;
+				this.frequencies[posting] = list.getFrequency(i);
+
+				if (positions) {
+					this.positionStarts[posting] = offset;
+					offset = list.getPositions(i).copyBytes(this.positions, offset);
+				}
+				max = Math.max(max, (double) this.frequencies[posting] / this.counts[document]);
+				posting++;
+			}
+
+			this.maxScores[word++] = max;
+		}
+
+		this.starts[word] = posting;
+		if (positions) {
+			this.positionStarts[posting] = offset;
+		}
+
+		Integer[] byLocation = new Integer[live];
+		for (int id = 0, i = 0; id < remap.length; id++) {
+			if (remap[id] >= 0) {
+				byLocation[i++] = remap[id];
+			}
+		}
+		Arrays.sort(byLocation, (a, b) -> this.locations[a].compareTo(this.locations[b]));
+
+		this.merged = new ConcurrentHashMap<>();
+		this.sorted = new int[byLocation.length];
+		this.ranks = new int[this.locations.length];
+		for (int i = 0; i < byLocation.length; i++) {
+			this.sorted[i] = byLocation[i];
+			this.ranks[byLocation[i]] = i;
+		}
+	}
+
+	@Override
+	public Set<String> getWords() {
+		return this.words.asSet();
+	}
+
+	@Override
+	public int size() {
+		return this.words.size();
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		checkPositions();
+		int index = this.words.find(word);
+		int document = findLocation(location);
+
+		if (index < 0 || document < 0) {
+			return Collections.emptySet();
+		}
+
+		int posting = Arrays.binarySearch(this.documents, this.starts[index], this.starts[index + 1], document);
+
+		if (posting < 0) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(getPositionList(posting));
+	}
+
+	@Override
+	public SortedMap<String, Set<Integer>> getPostings(String word) {
+		checkPositions();
+		int index = this.words.find(word);
+
+		if (index < 0) {
+			return Collections.emptySortedMap();
+		}
+
+		TreeMap<String, Set<Integer>> map = new TreeMap<>();
+		for (int posting = this.starts[index]; posting < this.starts[index + 1]; posting++) {
+			map.put(this.locations[this.documents[posting]], Collections.unmodifiableSet(getPositionList(posting)));
+		}
+		return Collections.unmodifiableSortedMap(map);
+	}
+
+	@Override
+	public SortedMap<String, Integer> getFrequencies(String word) {
+		int index = this.words.find(word);
+
+		if (index < 0) {
+			return Collections.emptySortedMap();
+		}
+
+		TreeMap<String, Integer> map = new TreeMap<>();
+		for (int posting = this.starts[index]; posting < this.starts[index + 1]; posting++) {
+			map.put(this.locations[this.documents[posting]], this.frequencies[posting]);
+		}
+		return Collections.unmodifiableSortedMap(map);
+	}
+
+	@Override
+	public boolean add(String word, String filename, int position) {
+		throw new UnsupportedOperationException("A frozen index is read-only.");
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("A frozen index is read-only.");
+	}
+
+	@Override
+	public void readBinary(Path inputFile) throws IOException {
+		throw new UnsupportedOperationException("A frozen index is read-only.");
+	}
+
+	@Override
+	public boolean removeLocation(String location) {
+		throw new UnsupportedOperationException("A frozen index is read-only.");
+	}
+
+	@Override
+	public InvertedIndex freeze() {
+		return this;
+	}
+
+	@Override
+	public Map<String, Integer> getUnmodifiableCounts() {
+		TreeMap<String, Integer> map = new TreeMap<>();
+
+		for (int id = 0; id < this.locations.length; id++) {
+			if (this.locations[id] != null) {
+				map.put(this.locations[id], this.counts[id]);
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public boolean hasWord(String word) {
+		return this.words.find(word) >= 0;
+	}
+
+	@Override
+	public boolean hasLocation(String word, String location) {
+		int index = this.words.find(word);
+		int document = findLocation(location);
+
+		return index >= 0 && document >= 0
+				&& Arrays.binarySearch(this.documents, this.starts[index], this.starts[index + 1], document) >= 0;
+	}
+
+	@Override
+	protected void collectPostings(String query, boolean exact, Collection<PostingIterator> postings) {
+		int index = this.words.find(query);
+
+		if (exact) {
+			if (index >= 0) {
+				postings.add(new Postings(index));
+			}
+			return;
+		}
+
+		int from = index < 0 ? -(index + 1) : index;
+		int to = this.words.prefixEnd(query);
+
+		if (!getScoringModel().weighsPostings() && MergedPostings.isWorthMerging(query, to - from)) {
+			postings.add(this.merged.computeIfAbsent(query, prefix -> merge(from, to)).iterator());
+			return;
+		}
+
+		for (int i = from; i < to; i++) {
+			postings.add(new Postings(i));
+		}
+	}
+
+	/**
+	 * Adds an iterator over the postings of every word starting with a prefix,
+	 * keyed by the word, for callers that combine the postings of the same word
+	 * from several indexes.
+	 *
+	 * @param prefix   the prefix
+	 * @param postings where to add the iterators
+	 */
+	protected void collectPostings(String prefix, Map<String, PostingIterator> postings) {
+		int index = this.words.find(prefix);
+		int to = this.words.prefixEnd(prefix);
+
+		for (int i = index < 0 ? -(index + 1) : index; i < to; i++) {
+			postings.put(this.words.get(i), new Postings(i));
+		}
+	}
+
+	/**
+	 * Merges the postings of a range of words.
+	 *
+	 * @param from the index of the first word
+	 * @param to   the index just past the last word
+	 * @return the merged postings
+	 */
+	private MergedPostings merge(int from, int to) {
+		ArrayList<PostingIterator> postings = new ArrayList<>(to - from);
+
+		for (int i = from; i < to; i++) {
+			postings.add(new Postings(i));
+		}
+		return new MergedPostings(postings, this.locations.length, document -> this.counts[document]);
+	}
+
+	@Override
+	protected void writePostings(String word, DataOutput output) throws IOException {
+		int index = this.words.find(word);
+		int previous = 0;
+
+		Varint.write(this.starts[index + 1] - this.starts[index], output);
+
+		for (int posting = this.starts[index]; posting < this.starts[index + 1]; posting++) {
+			Varint.write(this.documents[posting] - previous, output);
+			if (this.positions == null) {
+				Varint.write(this.frequencies[posting], output);
+			} else {
+				getPositionList(posting).write(output);
+			}
+			previous = this.documents[posting];
+		}
+	}
+
+	@Override
+	protected double getMaxScore(String word) {
+		return this.maxScores[this.words.find(word)];
+	}
+
+	@Override
+	protected int getDocumentCount() {
+		return this.locations.length;
+	}
+
+	@Override
+	protected String getLocation(int document) {
+		return this.locations[document];
+	}
+
+	@Override
+	protected int getLocationRank(int document) {
+		return this.ranks[document];
+	}
+
+	@Override
+	protected int getWordCount(int document) {
+		return this.counts[document];
+	}
+
+	@Override
+	protected int getLiveCount() {
+		return this.sorted.length;
+	}
+
+	@Override
+	protected double getAverageWordCount() {
+		return this.average;
+	}
+
+	@Override
+	protected double getNorm(int document) {
+		return this.norms[document];
+	}
+
+	/**
+	 * Changes how search results are scored, computing the norm of every
+	 * document again first.
+	 */
+	@Override
+	public void setScoringModel(ScoringModel scoring) {
+		this.norms = computeNorms(scoring);
+		super.setScoringModel(scoring);
+	}
+
+	/**
+	 * Computes the norm of every document under a scoring model.
+	 *
+	 * @param scoring the scoring model
+	 * @return the norm of each document
+	 */
+	private double[] computeNorms(ScoringModel scoring) {
+		double[] norms = new double[this.counts.length];
+
+		for (int id = 0; id < norms.length; id++) {
+			norms[id] = scoring.getNorm(this.counts[id], this.average);
+		}
+		return norms;
+	}
+
+	/**
+	 * Copies the encoded positions of a posting into a list.
+	 *
+	 * @param posting the index of the posting
+	 * @return the positions of that posting
+	 */
+	private PositionList getPositionList(int posting) {
+		byte[] bytes = Arrays.copyOfRange(this.positions, this.positionStarts[posting],
+				this.positionStarts[posting + 1]);
+		return PositionList.wrap(bytes, this.frequencies[posting]);
+	}
+
+	/**
+	 * Binary searches the documents sorted by location.
+	 *
+	 * @param location the location to find
+	 * @return the document id, or -1 if the location is not stored
+	 */
+	protected int findLocation(String location) {
+		int low = 0;
+		int high = this.sorted.length - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compared = this.locations[this.sorted[middle]].compareTo(location);
+
+			if (compared < 0) {
+				low = middle + 1;
+			} else if (compared > 0) {
+				high = middle - 1;
+			} else {
+				return this.sorted[middle];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Iterates over a range of the packed postings.
+	 */
+	private class Postings implements PostingIterator {
+
+		/**
+		 * The index of the current posting.
+		 */
+		private int posting;
+
+		/**
+		 * The index of the first posting of the word.
+		 */
+		private final int start;
+
+		/**
+		 * The index just past the last posting of the word.
+		 */
+		private final int end;
+
+		/**
+		 * The upper bound on the score of the word.
+		 */
+		private final double maxScore;
+
+		/**
+		 * Initializes an iterator over the postings of a word.
+		 *
+		 * @param word the index of the word
+		 */
+		public Postings(int word) {
+			this.start = starts[word];
+			this.posting = this.start - 1;
+			this.end = starts[word + 1];
+			this.maxScore = maxScores[word];
+		}
+
+		@Override
+		public int nextDocument() {
+			this.posting++;
+			return getDocument();
+		}
+
+		@Override
+		public int advance(int target) {
+			this.posting = PostingList.gallop(documents, this.posting + 1, this.end, target);
+			return getDocument();
+		}
+
+		@Override
+		public int getDocument() {
+			if (this.posting < this.start) {
+				return -1;
+			}
+			return this.posting < this.end ? documents[this.posting] : NO_MORE_DOCUMENTS;
+		}
+
+		@Override
+		public int getDocumentFrequency() {
+			return this.end - this.start;
+		}
+
+		@Override
+		public int getFrequency() {
+			return frequencies[this.posting];
+		}
+
+		@Override
+		public double getMaxScore() {
+			return this.maxScore;
+		}
+
+		@Override
+		public int[] getPositions() {
+			checkPositions();
+			return PositionList.decode(positions, positionStarts[this.posting], frequencies[this.posting]);
+		}
+	}
+}
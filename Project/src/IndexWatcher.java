@@ -0,0 +1,439 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps an index up to date with the text files under a directory after it
+ * was built, by reading again each file that is added or changed and removing
+ * each file that is deleted.
+ *
+ * Changes are found through a {@link WatchService} on every directory. Since
+ * watch services can drop events, and some file systems never send any, the
+ * whole tree is also rescanned every {@link #RESCAN_INTERVAL} milliseconds and
+ * whenever events were lost. The modification time, size and a checksum of the
+ * contents of every file are remembered, so a file is only read again when its
+ * contents actually changed. The files already indexed when the watcher starts
+ * are only recorded by modification time and size, since checksumming the
+ * whole tree up front would read it all a second time; such a file is read
+ * again the first time either of them changes.
+ *
+ * The watcher is the only one to change its records, from its own thread. The
+ * index is changed through {@link ThreadSafeInvertedIndex#replaceLocation}, so
+ * searches keep being answered from the last snapshot while a file is
+ * replaced. The thread is a daemon, so it never keeps the program running by
+ * itself.
+ *
+ * @author nedimazar
+ */
+public class IndexWatcher implements Runnable {
+
+	/**
+	 * The milliseconds between rescans of the whole tree.
+	 */
+	public static final long RESCAN_INTERVAL = 60000;
+
+	/**
+	 * The checksum recorded for a file whose contents were never read by the
+	 * watcher. Checksums are never negative, so it matches none of them.
+	 */
+	private static final long UNKNOWN = -1;
+
+	/**
+	 * The modification time, size and checksum of a file when it was last read.
+	 *
+	 * @author nedimazar
+	 */
+	private static class FileState {
+
+		/**
+		 * The modification time of the file.
+		 */
+		private final FileTime modified;
+
+		/**
+		 * The size of the file in bytes.
+		 */
+		private final long size;
+
+		/**
+		 * The checksum of the contents of the file, or {@link #UNKNOWN}.
+		 */
+		private final long checksum;
+
+		/**
+		 * Initializes the state of a file.
+		 *
+		 * @param modified the modification time of the file
+		 * @param size     the size of the file in bytes
+		 * @param checksum the checksum of the contents of the file, or
+		 *                 {@link #UNKNOWN}
+		 */
+		public FileState(FileTime modified, long size, long checksum) {
+			this.modified = modified;
+			this.size = size;
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * The directory or file being watched.
+	 */
+	private final Path root;
+
+	/**
+	 * The index to keep up to date.
+	 */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * The time the watcher was created. Files modified since then may not be in
+	 * the index as they are now, so they are read again by the first scan.
+	 */
+	private final FileTime created;
+
+	/**
+	 * The state of every text file found, by path.
+	 */
+	private final HashMap<Path, FileState> states;
+
+	/**
+	 * The directory each watch key was registered for.
+	 */
+	private final HashMap<WatchKey, Path> directories;
+
+	/**
+	 * Whether the first scan is over.
+	 */
+	private boolean scanned;
+
+	/**
+	 * The watch service, or null if the file system has none.
+	 */
+	private WatchService service;
+
+	/**
+	 * The thread the watcher runs on, once started.
+	 */
+	private Thread thread;
+
+	/**
+	 * Set when the watcher should stop.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Initializes a watcher. Creating it before the index is built makes sure
+	 * that files changed while it was built are read again.
+	 *
+	 * @param root  the directory or file the index was built from
+	 * @param index the index to keep up to date
+	 */
+	public IndexWatcher(Path root, ThreadSafeInvertedIndex index) {
+		this.root = root;
+		this.index = index;
+		this.created = FileTime.fromMillis(System.currentTimeMillis());
+		this.states = new HashMap<>();
+		this.directories = new HashMap<>();
+		this.scanned = false;
+		this.closed = false;
+	}
+
+	/**
+	 * Starts watching on a new daemon thread.
+	 */
+	public synchronized void start() {
+		if (this.thread == null) {
+			this.thread = new Thread(this, "IndexWatcher");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+	}
+
+	/**
+	 * Stops watching and waits for the thread to finish.
+	 */
+	public void close() {
+		this.closed = true;
+
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+		}
+
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Registers every directory, scans every file, and then handles changes
+	 * until closed.
+	 */
+	@Override
+	public void run() {
+		try {
+			this.service = FileSystems.getDefault().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			System.out.println("Changes can not be watched, rescanning every " + RESCAN_INTERVAL + " ms instead.");
+			this.service = null;
+		}
+
+		try {
+			long rescan = System.nanoTime();
+			scan(this.root, true);
+			this.scanned = true;
+
+			while (!this.closed) {
+				long wait = RESCAN_INTERVAL - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rescan);
+				boolean lost = wait <= 0;
+
+				if (!lost) {
+					if (this.service == null) {
+						Thread.sleep(wait);
+						lost = true;
+					} else {
+						WatchKey key = this.service.poll(wait, TimeUnit.MILLISECONDS);
+						lost = key == null || !handle(key);
+					}
+				}
+
+				if (lost) {
+					rescan = System.nanoTime();
+					scan(this.root, true);
+				}
+				this.index.refresh();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (this.service != null) {
+				try {
+					this.service.close();
+				} catch (IOException e) {
+					System.out.println("The watch service could not be closed.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles the events of a watch key, and of any other keys already waiting.
+	 *
+	 * @param key the first key with events
+	 * @return false if events were lost and the tree should be rescanned
+	 */
+	private boolean handle(WatchKey key) {
+		boolean complete = true;
+
+		while (key != null) {
+			Path directory = this.directories.get(key);
+
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+					complete = false;
+					continue;
+				}
+
+				Path path = directory.resolve((Path) event.context());
+
+				if (Files.isDirectory(path)) {
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+						scan(path, false);
+					}
+				} else if (Files.exists(path)) {
+					check(path);
+				} else {
+					forget(path);
+				}
+			}
+
+			if (!key.reset()) {
+				this.directories.remove(key);
+			}
+			key = this.service.poll();
+		}
+		return complete;
+	}
+
+	/**
+	 * Registers every directory under a path and checks every text file in it.
+	 *
+	 * @param start the path to scan
+	 * @param full  true to also remove the files under the path that are gone
+	 */
+	private void scan(Path start, boolean full) {
+		Set<Path> found = new HashSet<>();
+		Set<Path> watched = new HashSet<>(this.directories.values());
+
+		try {
+			Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+					new SimpleFileVisitor<Path>() {
+						@Override
+						public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+							if (service != null && !watched.contains(directory)) {
+								register(directory);
+							}
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+							if (attributes.isRegularFile() && InvertedIndexBuilder.hasTextExtension(file)) {
+								found.add(file);
+								check(file, attributes);
+							}
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFileFailed(Path file, IOException e) {
+							return FileVisitResult.CONTINUE;
+						}
+					});
+		} catch (IOException e) {
+			System.out.println("Path can not be traversed: " + start.toString());
+			return;
+		}
+
+		if (full) {
+			for (Path path : new ArrayList<>(this.states.keySet())) {
+				if (!found.contains(path)) {
+					forget(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts watching a directory.
+	 *
+	 * @param directory the directory to watch
+	 */
+	private void register(Path directory) {
+		try {
+			WatchKey key = directory.register(this.service, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			this.directories.put(key, directory);
+		} catch (IOException e) {
+			System.out.println("Directory can not be watched: " + directory.toString());
+		}
+	}
+
+	/**
+	 * Checks a path that changed, if it is a text file.
+	 *
+	 * @param path the path
+	 */
+	private void check(Path path) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+			if (attributes.isRegularFile() && InvertedIndexBuilder.hasTextExtension(path)) {
+				check(path, attributes);
+			}
+		} catch (IOException e) {
+			forget(path);
+		}
+	}
+
+	/**
+	 * Reads a text file into the index again if its contents changed since it
+	 * was last read.
+	 *
+	 * @param path       the text file
+	 * @param attributes the attributes of the file
+	 */
+	private void check(Path path, BasicFileAttributes attributes) {
+		FileState state = this.states.get(path);
+		FileTime modified = attributes.lastModifiedTime();
+
+		if (state != null && state.modified.equals(modified) && state.size == attributes.size()) {
+			return;
+		}
+
+		if (state == null && !this.scanned && modified.compareTo(this.created) < 0) {
+			this.states.put(path, new FileState(modified, attributes.size(), UNKNOWN));
+			return;
+		}
+
+		try {
+			long checksum = checksum(path);
+
+			if (state != null && state.checksum == checksum) {
+				this.states.put(path, new FileState(modified, attributes.size(), checksum));
+				return;
+			}
+
+			InvertedIndex replacement = new InvertedIndex(this.index.hasPositions());
+			InvertedIndexBuilder.addPath(path, replacement);
+			this.index.replaceLocation(path.toString(), replacement);
+			this.states.put(path, new FileState(modified, attributes.size(), checksum));
+		} catch (IOException e) {
+			System.out.println("Problem encountered while adding file: " + path.toString());
+		}
+	}
+
+	/**
+	 * Removes a file, or every file under a directory, that no longer exists.
+	 *
+	 * @param path the path that is gone
+	 */
+	private void forget(Path path) {
+		if (this.states.remove(path) != null) {
+			this.index.removeLocation(path.toString());
+			return;
+		}
+
+		for (Path known : new ArrayList<>(this.states.keySet())) {
+			if (known.startsWith(path) && !Files.exists(known, LinkOption.NOFOLLOW_LINKS)) {
+				this.states.remove(known);
+				this.index.removeLocation(known.toString());
+			}
+		}
+	}
+
+	/**
+	 * Computes a checksum of the contents of a file.
+	 *
+	 * @param path the file
+	 * @return the checksum
+	 * @throws IOException if the file can not be read
+	 */
+	private static long checksum(Path path) throws IOException {
+		CRC32C checksum = new CRC32C();
+		byte[] buffer = new byte[65536];
+
+		try (InputStream input = Files.newInputStream(path)) {
+			int read;
+			while ((read = input.read(buffer)) > 0) {
+				checksum.update(buffer, 0, read);
+			}
+		}
+		return checksum.getValue();
+	}
+}
@@ -1,14 +1,25 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * An inverted index data structure that maps words to a map mapping filenames
@@ -27,51 +38,36 @@ public class InvertedIndex {
 	 */
 	public class Result implements Comparable<Result> {
 		/**
-		 * This will hold the location of the search result.
+		 * This will hold the document id of the search result.
 		 */
-		private final String location;
+		private final int document;
 		/**
 		 * This will hold the count of matches for a specific result object.
 		 */
-		private int count;
+		private final int count;
 		/**
 		 * This will hold the scoire of the search result.
 		 */
-		private double score;
-
+		private final double score;
 		/**
-		 * Constructor for Result object.
-		 *
-		 * @param location To construct a result given a location.
-		 *
+		 * The place of the location of the result among every stored location
+		 * in sorted order, which breaks ties without comparing strings.
 		 */
-		public Result(String location) {
-			this.location = location;
-			this.count = 0;
-			this.score = 0;
-		}
+		private final int rank;
 
 		/**
-		 * Debug constructor.
+		 * Constructs a finished Result.
 		 *
-		 * @param location The location of a search result.
+		 * @param document The document id of a search result.
 		 * @param count    The number of matches in that location.
-		 * @param score    The score calculated by matches/wordCount
+		 * @param score    The score given by the scoring model, matches/wordCount
+		 *                 by default.
 		 */
-		public Result(String location, int count, double score) {
-			this.location = location;
+		public Result(int document, int count, double score) {
+			this.document = document;
 			this.count = count;
 			this.score = score;
-		}
-
-		/**
-		 * Updates the count and score associated to a word.
-		 *
-		 * @param word The word to be updated.
-		 */
-		private void updateCount(String word) {
-			this.count += invertedIndex.get(word).get(this.location).size();
-			this.score = (double) this.count / counts.get(this.location);
+			this.rank = getLocationRank(document);
 		}
 
 		/**
@@ -92,30 +88,13 @@ public class InvertedIndex {
 			return this.score;
 		}
 
-		/**
-		 * Checks if another Results location is the same as this ones.
-		 *
-		 * @param other The Result object to check against.
-		 * @return True if same;
-		 */
-		public boolean sameLocation(Result other) {
-			return this.location.compareTo(other.location) == 0;
-		}
-
-		/**
-		 * @return A formatted string ready to write.
-		 */
-		public String getWhereString() {
-			return String.format("\"where\": \"%s\",", this.location);
-		}
-
 		/**
 		 * Returns the location of a result without any formatting.
 		 *
 		 * @return a string of the location of the result
 		 */
 		public String getLocation() {
-			return this.location;
+			return InvertedIndex.this.getLocation(this.document);
 		}
 
 		/**
@@ -132,40 +111,141 @@ public class InvertedIndex {
 			return String.format("\"score\": %s", String.format("%.8f", this.score));
 		}
 
+		/**
+		 * Orders Results by score and then count, both highest first, and then by
+		 * location. Locations are compared by their precomputed rank, so sorting
+		 * neither allocates nor looks up a location.
+		 */
 		@Override
 		public int compareTo(Result o) {
-			return Comparator.comparing(Result::getScore, Comparator.reverseOrder())
-					.thenComparing(Result::getCount, Comparator.reverseOrder()).thenComparing(Result::getWhereString)
-					.compare(this, o);
+			int compared = Double.compare(o.score, this.score);
+
+			if (compared == 0) {
+				compared = Integer.compare(o.count, this.count);
+
+				if (compared == 0) {
+					compared = Integer.compare(this.rank, o.rank);
+				}
+			}
+			return compared;
 		}
 
 	}
 
+	/**
+	 * The first four bytes of a binary index file.
+	 */
+	protected static final int MAGIC = 0x4E534958;
+
+	/**
+	 * The version of the binary index format.
+	 */
+	protected static final int VERSION = 2;
+
+	/**
+	 * The share of stored documents that may be removed before their postings
+	 * are purged.
+	 */
+	public static final double PURGE_THRESHOLD = 0.2;
+
+	/**
+	 * The most words a top-k search prunes with MaxScore. Broad partial queries
+	 * matching more words than this are cheaper to accumulate in full.
+	 */
+	private static final int MAX_SCORE_LIMIT = 64;
+
 	/**
 	 * The data structure that will store the inverted index info.
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex;
+	private final NavigableMap<String, PostingList> invertedIndex;
+
+	/**
+	 * This table maps locations to document ids and keeps track of their
+	 * wordcounts.
+	 */
+	private final DocumentTable documents;
 
 	/**
-	 * This map will keep track of the wordcounts of files.
+	 * Whether the positions of every word are stored, or only how many times it
+	 * appears in each location.
 	 */
-	private final TreeMap<String, Integer> counts;
+	private final boolean positions;
+
+	/**
+	 * How search results are scored.
+	 */
+	private volatile ScoringModel scoring;
 
 	/**
 	 * Constructor for the InvertedIndex class, initializes the structure.
 	 */
 	public InvertedIndex() {
-		this.invertedIndex = new TreeMap<>();
-		this.counts = new TreeMap<>();
+		this(true);
+	}
+
+	/**
+	 * Initializes an index that may store only how many times each word
+	 * appears in each location. That is all searching needs, except for
+	 * phrases and proximity groups, and takes a fraction of the memory.
+	 *
+	 * @param positions True to store positions, false to only store counts.
+	 */
+	public InvertedIndex(boolean positions) {
+		this(new TreeMap<>(), new DocumentTable(), positions);
+	}
+
+	/**
+	 * Constructor for subclasses that store the index in other structures.
+	 *
+	 * @param invertedIndex The empty map to store the postings of every word in.
+	 * @param documents     The empty table to store the documents in.
+	 * @param positions     True to store positions, false to only store counts.
+	 */
+	protected InvertedIndex(NavigableMap<String, PostingList> invertedIndex, DocumentTable documents,
+			boolean positions) {
+		this.invertedIndex = invertedIndex;
+		this.documents = documents;
+		this.positions = positions;
+		this.scoring = ScoringModel.MATCH_RATIO;
+	}
+
+	/**
+	 * Returns how search results are scored.
+	 *
+	 * @return The scoring model, {@link ScoringModel#MATCH_RATIO} unless set.
+	 */
+	public ScoringModel getScoringModel() {
+		return this.scoring;
+	}
+
+	/**
+	 * Changes how search results are scored. Indexes frozen from this one keep
+	 * the model. Not meant to be changed while searches are running.
+	 *
+	 * @param scoring The scoring model to use.
+	 */
+	public void setScoringModel(ScoringModel scoring) {
+		this.scoring = scoring;
+	}
+
+	/**
+	 * Checks whether the positions of every word are stored.
+	 *
+	 * @return True if positions are stored, false if only counts are.
+	 */
+	public boolean hasPositions() {
+		return this.positions;
 	}
 
 	/**
-	 * Gets the unmodifiable index.
+	 * Makes sure the positions of every word are stored.
 	 *
-	 * @return the inverted index.
+	 * @throws UnsupportedOperationException If only counts are stored.
 	 */
-	public Map<String, TreeMap<String, TreeSet<Integer>>> getIndex(){
-		return Collections.unmodifiableMap(this.invertedIndex);
+	protected void checkPositions() {
+		if (!hasPositions()) {
+			throw new UnsupportedOperationException("Positions are not stored by this index.");
+		}
 	}
 
 	/**
@@ -189,12 +269,18 @@ public class InvertedIndex {
 	 * @param word the word
 	 * @param location the locastion in question
 	 * @return the collection of positions
+	 * @throws UnsupportedOperationException if positions are not stored
 	 */
 	public Set<Integer> getPositions(String word, String location) {
-		if (this.invertedIndex.get(word).get(location) == null) {
+		checkPositions();
+		PostingList postings = this.invertedIndex.get(word);
+		int document = this.documents.getId(location);
+		PositionList positions = postings == null || document < 0 ? null : postings.get(document);
+
+		if (positions == null) {
 			return Collections.emptySet();
 		} else {
-			return Collections.unmodifiableSet(this.invertedIndex.get(word).get(location));
+			return Collections.unmodifiableSet(positions);
 		}
 	}
 
@@ -205,11 +291,60 @@ public class InvertedIndex {
 	 * @return A set of locations or an empty set;
 	 */
 	public Set<String> getLocations(String word) {
-		if (this.invertedIndex.get(word) != null) {
-			return this.invertedIndex.get(word).keySet();
-		} else {
-			return Collections.emptySet();
+		return getFrequencies(word).keySet();
+	}
+
+	/**
+	 * Returns how many times a word appears in every location it appears in,
+	 * sorted by location. Works whether or not positions are stored.
+	 *
+	 * @param word The word we are looking for.
+	 * @return An unmodifiable map of locations to counts, or an empty map.
+	 */
+	public SortedMap<String, Integer> getFrequencies(String word) {
+		PostingList postings = this.invertedIndex.get(word);
+
+		if (postings == null) {
+			return Collections.emptySortedMap();
+		}
+
+		postings = postings.snapshot();
+		boolean tombstones = this.documents.getTombstoneCount() > 0;
+		TreeMap<String, Integer> map = new TreeMap<>();
+		for (int i = 0; i < postings.size(); i++) {
+			if (!tombstones || !this.documents.isDeleted(postings.getDocument(i))) {
+				map.put(this.documents.getLocation(postings.getDocument(i)), postings.getFrequency(i));
+			}
+		}
+		return Collections.unmodifiableSortedMap(map);
+	}
+
+	/**
+	 * Returns the positions of a word in every location it appears in, sorted by
+	 * location.
+	 *
+	 * @param word The word we are looking for.
+	 * @return An unmodifiable map of locations to positions, or an empty map.
+	 * @throws UnsupportedOperationException if positions are not stored
+	 */
+	public SortedMap<String, Set<Integer>> getPostings(String word) {
+		checkPositions();
+		PostingList postings = this.invertedIndex.get(word);
+
+		if (postings == null) {
+			return Collections.emptySortedMap();
+		}
+
+		postings = postings.snapshot();
+		boolean tombstones = this.documents.getTombstoneCount() > 0;
+		TreeMap<String, Set<Integer>> map = new TreeMap<>();
+		for (int i = 0; i < postings.size(); i++) {
+			if (!tombstones || !this.documents.isDeleted(postings.getDocument(i))) {
+				map.put(this.documents.getLocation(postings.getDocument(i)),
+						Collections.unmodifiableSet(postings.getPositions(i)));
+			}
 		}
+		return Collections.unmodifiableSortedMap(map);
 	}
 
 	/**
@@ -222,47 +357,287 @@ public class InvertedIndex {
 	 * @return returns true if the data structure was modified as a result of add()
 	 */
 	public boolean add(String word, String filename, int position) {
-		this.invertedIndex.putIfAbsent(word, new TreeMap<>());
-		this.invertedIndex.get(word).putIfAbsent(filename, new TreeSet<>());
+		int document = this.documents.add(filename);
+		boolean added = getOrCreate(word).add(document, position);
+
+		this.documents.updateCount(document, position);
+
+		return added;
+	}
 
-		boolean added = this.invertedIndex.get(word).get(filename).add(position);
+	/**
+	 * Adds every word of a document at once, the first at position 1. The
+	 * positions of each distinct word are gathered first, so the postings of a
+	 * word are looked up and changed once per document instead of once per
+	 * occurrence.
+	 *
+	 * @param location The location of the document.
+	 * @param stems    The stemmed words of the document, in order.
+	 */
+	public void addDocument(String location, List<String> stems) {
+		if (stems.isEmpty()) {
+			return;
+		}
 
-		this.counts.putIfAbsent(filename, position);
+		HashMap<String, PositionList> grouped = new HashMap<>();
+		int position = 0;
 
-		if (position > counts.get(filename)) {
-			this.counts.put(filename, position);
+		for (String stem : stems) {
+			grouped.computeIfAbsent(stem, word -> new PositionList()).add(++position);
 		}
 
-		return added;
+		addDocument(location, grouped, position);
+	}
+
+	/**
+	 * Adds every word of a document at once, given the positions of each
+	 * distinct word. The position lists are adopted rather than copied.
+	 *
+	 * @param location  The location of the document.
+	 * @param positions The positions of every word in the document.
+	 * @param count     The number of words in the document.
+	 */
+	public void addDocument(String location, Map<String, PositionList> positions, int count) {
+		if (positions.isEmpty()) {
+			return;
+		}
+
+		int document = this.documents.add(location);
+		for (Map.Entry<String, PositionList> entry : positions.entrySet()) {
+			getOrCreate(entry.getKey()).add(document, entry.getValue());
+		}
+		this.documents.updateCount(document, count);
 	}
 
 	/**
-	 * Add all method for going through the inverted index
+	 * Add all method for going through the inverted index.
+	 *
+	 * Both indexes keep their words sorted. When the other index is large
+	 * compared to this one, the two word lists are walked side by side instead
+	 * of looking up each word on its own, and an empty index is built from the
+	 * other one's sorted words directly.
+	 *
+	 * Documents removed from the other index are left out, along with words
+	 * found only in them.
 	 *
 	 * @param other is the other inverted index
 	 */
 	public void addAll(InvertedIndex other) {
-		for (String word : other.invertedIndex.keySet()) {
-			if (this.invertedIndex.containsKey(word) == false) {
-				this.invertedIndex.put(word, other.invertedIndex.get(word));
+		boolean tombstones = other.documents.getTombstoneCount() > 0;
+		int[] remap = new int[other.documents.size()];
+
+		for (int id = 0; id < remap.length; id++) {
+			if (other.documents.isDeleted(id)) {
+				remap[id] = -1;
 			} else {
-				for (String location : other.invertedIndex.get(word).keySet()) {
-					if (this.invertedIndex.get(word).containsKey(location) == false) {
-						this.invertedIndex.get(word).put(location, other.invertedIndex.get(word).get(location));
-					} else {
-						this.invertedIndex.get(word).get(location).addAll(other.invertedIndex.get(word).get(location));
-					}
+				remap[id] = this.documents.add(other.documents.getLocation(id));
+				this.documents.updateCount(remap[id], other.documents.getCount(id));
+			}
+		}
+
+		if (this.invertedIndex instanceof TreeMap && this.invertedIndex.isEmpty()) {
+			TreeMap<String, PostingList> built = new TreeMap<>(other.invertedIndex);
+			Iterator<Map.Entry<String, PostingList>> entries = built.entrySet().iterator();
+
+			while (entries.hasNext()) {
+				Map.Entry<String, PostingList> entry = entries.next();
+				PostingList postings = newPostingList();
+				postings.addAll(entry.getValue().snapshot(), remap);
+
+				if (postings.size() == 0) {
+					entries.remove();
+				} else {
+					entry.setValue(postings);
+				}
+			}
+			this.invertedIndex.putAll(built);
+			return;
+		}
+
+		int depth = 32 - Integer.numberOfLeadingZeros(this.invertedIndex.size());
+		if ((long) other.invertedIndex.size() * depth <= this.invertedIndex.size()) {
+			for (Map.Entry<String, PostingList> entry : other.invertedIndex.entrySet()) {
+				PostingList postings = entry.getValue().snapshot();
+
+				if (!tombstones || hasDocument(postings, remap)) {
+					getOrCreate(entry.getKey()).addAll(postings, remap);
 				}
 			}
+			return;
 		}
 
-		for (String location : other.counts.keySet()) {
-			if (this.counts.containsKey(location) == false) {
-				this.counts.put(location, other.counts.get(location));
+		Iterator<Map.Entry<String, PostingList>> mine = this.invertedIndex.entrySet().iterator();
+		Map.Entry<String, PostingList> current = mine.hasNext() ? mine.next() : null;
+		ArrayList<Map.Entry<String, PostingList>> missing = new ArrayList<>();
+
+		for (Map.Entry<String, PostingList> entry : other.invertedIndex.entrySet()) {
+			String word = entry.getKey();
+
+			while (current != null && current.getKey().compareTo(word) < 0) {
+				current = mine.hasNext() ? mine.next() : null;
+			}
+
+			if (current != null && current.getKey().equals(word)) {
+				wordChanged(word);
+				current.getValue().addAll(entry.getValue().snapshot(), remap);
 			} else {
-				this.counts.put(location, Math.max(this.counts.get(location), other.counts.get(location)));
+				missing.add(entry);
 			}
 		}
+
+		for (Map.Entry<String, PostingList> entry : missing) {
+			PostingList postings = entry.getValue().snapshot();
+
+			if (!tombstones || hasDocument(postings, remap)) {
+				getOrCreate(entry.getKey()).addAll(postings, remap);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a list holds any document that is not left out.
+	 *
+	 * @param postings The list to check.
+	 * @param remap    Maps its document ids to new ids, or to -1 to leave a
+	 *                 document out.
+	 * @return True if some document of the list maps to an id.
+	 */
+	private static boolean hasDocument(PostingList postings, int[] remap) {
+		for (int i = 0; i < postings.size(); i++) {
+			if (remap[postings.getDocument(i)] >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes a location. Its document is marked with a tombstone, which
+	 * searches skip right away, and its postings are left in place until the
+	 * share of removed documents reaches {@link #PURGE_THRESHOLD}, when they are
+	 * all purged at once. Which words a document contains is not stored, so
+	 * dropping its postings means looking at every word, which is cheaper done
+	 * for many documents at a time.
+	 *
+	 * @param location The location to remove.
+	 * @return true if the location was in the index
+	 */
+	public boolean removeLocation(String location) {
+		boolean removed = tombstone(location);
+
+		if (removed && needsPurge()) {
+			purge();
+		}
+		return removed;
+	}
+
+	/**
+	 * Marks the document of a location as removed, without purging.
+	 *
+	 * @param location The location to remove.
+	 * @return true if the location was in the index
+	 */
+	protected boolean tombstone(String location) {
+		return this.documents.delete(location) >= 0;
+	}
+
+	/**
+	 * Replaces everything stored for a location with the contents of another
+	 * index, as when a file changed and was read again. The new contents get a
+	 * new document id, so nothing has to be purged first.
+	 *
+	 * @param location    The location to replace.
+	 * @param replacement An index holding only the new contents of the
+	 *                    location, which is empty if the location is gone.
+	 */
+	public void replaceLocation(String location, InvertedIndex replacement) {
+		removeLocation(location);
+		addAll(replacement);
+	}
+
+	/**
+	 * Returns the share of the documents whose postings are stored that were
+	 * removed.
+	 *
+	 * @return The fraction of removed documents, between 0 and 1.
+	 */
+	public double getDeletedFraction() {
+		int stored = this.documents.getStoredCount();
+		return stored == 0 ? 0 : (double) this.documents.getTombstoneCount() / stored;
+	}
+
+	/**
+	 * Checks whether enough documents were removed to purge their postings.
+	 *
+	 * @return True if the fraction of removed documents reached
+	 *         {@link #PURGE_THRESHOLD}.
+	 */
+	public boolean needsPurge() {
+		return this.documents.getTombstoneCount() > 0 && getDeletedFraction() >= PURGE_THRESHOLD;
+	}
+
+	/**
+	 * Drops the postings of every removed document in one pass over the words,
+	 * along with words left without postings, and then the locations and counts
+	 * of those documents.
+	 */
+	public void purge() {
+		BitSet deleted = this.documents.getDeleted();
+
+		if (this.documents.getTombstoneCount() == 0) {
+			return;
+		}
+
+		Iterator<PostingList> lists = this.invertedIndex.values().iterator();
+		while (lists.hasNext()) {
+			PostingList postings = lists.next();
+
+			if (postings.removeAll(deleted) && postings.size() == 0) {
+				lists.remove();
+			}
+		}
+
+		this.documents.purge(deleted);
+	}
+
+	/**
+	 * Returns the postings of a word, adding an empty list for it first if
+	 * needed.
+	 *
+	 * @param word The word.
+	 * @return The postings of the word.
+	 */
+	private PostingList getOrCreate(String word) {
+		wordChanged(word);
+		PostingList postings = this.invertedIndex.get(word);
+
+		if (postings == null) {
+			postings = newPostingList();
+			PostingList existing = this.invertedIndex.putIfAbsent(word, postings);
+
+			if (existing != null) {
+				postings = existing;
+			}
+		}
+		return postings;
+	}
+
+	/**
+	 * Called before postings are added to a word. Does nothing here; subclasses
+	 * that publish copies of the index use it to tell which words changed.
+	 *
+	 * @param word The word.
+	 */
+	protected void wordChanged(String word) {
+	}
+
+	/**
+	 * Creates the list that holds the postings of a new word.
+	 *
+	 * @return An empty posting list.
+	 */
+	protected PostingList newPostingList() {
+		return new PostingList(this.positions);
 	}
 
 	/**
@@ -272,14 +647,114 @@ public class InvertedIndex {
 	 * @throws IOException Very possible.
 	 */
 	public void writeIndex(Path outputFile) throws IOException {
-		SimpleJsonWriter.asInvertedIndex(this.invertedIndex, outputFile);
+		if (this.documents.hasDeletions()) {
+			freeze().writeIndex(outputFile);
+			return;
+		}
+		SimpleJsonWriter.asInvertedIndex(this, outputFile);
+	}
+
+	/**
+	 * Writes the invertedIndex in a compact binary format that
+	 * {@link #readBinary(Path)} can load back. An index with removed documents
+	 * is frozen first, which leaves them out.
+	 *
+	 * @param outputFile Where to write.
+	 * @throws IOException Very possible.
+	 */
+	public void writeBinary(Path outputFile) throws IOException {
+		if (this.documents.hasDeletions()) {
+			freeze().writeBinary(outputFile);
+			return;
+		}
+
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(outputFile)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeBoolean(hasPositions());
+
+			Varint.write(getDocumentCount(), output);
+			for (int document = 0; document < getDocumentCount(); document++) {
+				output.writeUTF(getLocation(document));
+				Varint.write(getWordCount(document), output);
+			}
+
+			Set<String> words = getWords();
+			Varint.write(words.size(), output);
+			for (String word : words) {
+				output.writeUTF(word);
+				writePostings(word, output);
+			}
+		}
+	}
+
+	/**
+	 * Adds everything stored in a file written by {@link #writeBinary(Path)} to
+	 * the invertedIndex. The file is read one word at a time. Files written
+	 * before counts-only indexes existed always hold positions.
+	 *
+	 * @param inputFile Where to read from.
+	 * @throws IOException If the file is unreadable, not a binary index, or
+	 *                     holds only counts while this index stores positions.
+	 */
+	public void readBinary(Path inputFile) throws IOException {
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(inputFile)))) {
+			int version = input.readInt() == MAGIC ? input.readInt() : -1;
+
+			if (version != 1 && version != VERSION) {
+				throw new IOException("Not a binary index file: " + inputFile);
+			}
+
+			boolean positions = version == 1 || input.readBoolean();
+
+			if (hasPositions() && !positions) {
+				throw new IOException("The binary index has no positions to read: " + inputFile);
+			}
+
+			int[] remap = this.documents.read(input);
+			int words = Varint.read(input);
+
+			for (int i = 0; i < words; i++) {
+				String word = input.readUTF();
+				getOrCreate(word).addAll(PostingList.read(input, remap, positions));
+			}
+		}
+	}
+
+	/**
+	 * Writes the invertedIndex as a segment file that can be memory-mapped and
+	 * searched by a {@link MappedInvertedIndex}.
+	 *
+	 * @param outputFile Where to write.
+	 * @throws IOException Very possible.
+	 */
+	public void writeSegment(Path outputFile) throws IOException {
+		if (this.documents.hasDeletions()) {
+			freeze().writeSegment(outputFile);
+			return;
+		}
+		MappedInvertedIndex.write(this, outputFile);
+	}
+
+	/**
+	 * Writes the postings of a word in the layout of
+	 * {@link PostingList#write(DataOutput)}. Used by both binary formats.
+	 *
+	 * @param word   A word stored in the index.
+	 * @param output Where to write.
+	 * @throws IOException Very possible.
+	 */
+	protected void writePostings(String word, DataOutput output) throws IOException {
+		this.invertedIndex.get(word).write(output);
 	}
 
 	/**
 	 * @return returns counts as an unmodifiable
 	 */
 	public Map<String, Integer> getUnmodifiableCounts() {
-		return Collections.unmodifiableMap(this.counts);
+		return this.documents.getCounts();
 	}
 
 	/**
@@ -300,8 +775,12 @@ public class InvertedIndex {
 	 * @return true if the word entry exists snd contains an entry for the location
 	 */
 	public boolean hasLocation(String word, String location) {
-		if (hasWord(word)) {
-			return this.invertedIndex.get(word).containsKey(location);
+		int document = this.documents.getId(location);
+
+		PostingList postings = this.invertedIndex.get(word);
+
+		if (postings != null && document >= 0) {
+			return postings.indexOf(document) >= 0;
 		}
 		return false;
 	}
@@ -313,17 +792,13 @@ public class InvertedIndex {
 	 * @return A set of Results associated to a query.
 	 */
 	public ArrayList<Result> exactSearch(Collection<String> queries) {
-		ArrayList<Result> results = new ArrayList<>();
-		HashMap<String, Result> lookup = new HashMap<>();
+		ArrayList<PostingIterator> postings = new ArrayList<>();
 
 		for (String query : queries) {
-			if (invertedIndex.containsKey(query)) {
-				searchHelper(results, query, lookup);
-			}
+			collectScored(query, true, postings);
 		}
 
-		Collections.sort(results);
-		return results;
+		return searchHelper(postings);
 	}
 
 	/**
@@ -333,41 +808,438 @@ public class InvertedIndex {
 	 * @return An ArrayList of Results.
 	 */
 	public ArrayList<Result> partialSearch(Collection<String> queries) {
-		ArrayList<Result> results = new ArrayList<>();
-		HashMap<String, Result> lookup = new HashMap<>();
+		ArrayList<PostingIterator> postings = new ArrayList<>();
 
 		for (String query : queries) {
-			for (String word : this.invertedIndex.tailMap(query).keySet()) {
-				if (word.startsWith(query)) {
-					searchHelper(results, word, lookup);
-				} else {
-					break;
-				}
-			}
+			collectScored(query, false, postings);
 		}
 
-		Collections.sort(results);
-		return results;
+		return searchHelper(postings);
 	}
 
 	/**
-	 * A helper method called by the two search methods.
+	 * Adds an iterator over the postings of every word matching a query. An exact
+	 * query matches only itself, a partial query matches every word starting with
+	 * it. Removed documents not yet purged are skipped.
 	 *
-	 * @param results List of Result objects.
-	 * @param word    The word being searched.
-	 * @param lookup  A lookup map for updating counts and scores.
+	 * @param query    The query word.
+	 * @param exact    Is it an exact search?
+	 * @param postings Where to add the iterators.
 	 */
-	private void searchHelper(ArrayList<Result> results, String word, Map<String, Result> lookup) {
-		for (String location : this.invertedIndex.get(word).keySet()) {
-			if (lookup.containsKey(location)) {
-				lookup.get(location).updateCount(word);
-			} else {
-				Result result = new Result(location);
-				result.updateCount(word);
-				lookup.put(location, result);
-				results.add(result);
+	protected void collectPostings(String query, boolean exact, Collection<PostingIterator> postings) {
+		BitSet deleted = this.documents.getTombstoneCount() > 0 ? this.documents.getDeleted() : null;
+
+		if (exact) {
+			PostingList list = this.invertedIndex.get(query);
+			if (list != null) {
+				postings.add(skipDeleted(list.iterator(), deleted));
 			}
+			return;
 		}
+
+		for (Map.Entry<String, PostingList> entry : this.invertedIndex.tailMap(query).entrySet()) {
+			if (entry.getKey().startsWith(query)) {
+				postings.add(skipDeleted(entry.getValue().iterator(), deleted));
+			} else {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Like {@link #collectPostings(String, boolean, Collection)}, but weighs the
+	 * postings of every word added if the scoring model needs it.
+	 *
+	 * @param query    The query word.
+	 * @param exact    Is it an exact search?
+	 * @param postings Where to add the iterators.
+	 */
+	private void collectScored(String query, boolean exact, List<PostingIterator> postings) {
+		int start = postings.size();
+		collectPostings(query, exact, postings);
+
+		if (this.scoring.weighsPostings()) {
+			for (int i = start; i < postings.size(); i++) {
+				postings.set(i, new ScoredPostings(postings.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * Wraps an iterator so that it skips removed documents.
+	 *
+	 * @param iterator The iterator to wrap.
+	 * @param deleted  The ids of removed documents, or null if there are none.
+	 * @return An iterator over the documents that were not removed.
+	 */
+	protected static PostingIterator skipDeleted(PostingIterator iterator, BitSet deleted) {
+		return deleted == null ? iterator : new LivePostings(iterator, deleted);
+	}
+
+	/**
+	 * Returns the ids of every removed document.
+	 *
+	 * @return A copy of the ids, or null if no document was ever removed.
+	 */
+	protected BitSet getDeleted() {
+		return this.documents.hasDeletions() ? this.documents.getDeleted() : null;
+	}
+
+	/**
+	 * Returns the number of document ids in use, which bounds every id found in a
+	 * posting.
+	 *
+	 * @return the number of documents
+	 */
+	protected int getDocumentCount() {
+		return this.documents.size();
+	}
+
+	/**
+	 * Returns the location of a document.
+	 *
+	 * @param document The document id.
+	 * @return The location of the document.
+	 */
+	protected String getLocation(int document) {
+		return this.documents.getLocation(document);
+	}
+
+	/**
+	 * Returns the place of the location of a document among every stored
+	 * location in sorted order. Only ranks of the same index compare
+	 * meaningfully, and only while no document is added.
+	 *
+	 * @param document The document id.
+	 * @return The rank of the location of the document.
+	 */
+	protected int getLocationRank(int document) {
+		return this.documents.getRank(document);
+	}
+
+	/**
+	 * Returns the number of words in a document.
+	 *
+	 * @param document The document id.
+	 * @return The word count of the document.
+	 */
+	protected int getWordCount(int document) {
+		return this.documents.getCount(document);
+	}
+
+	/**
+	 * Returns the number of documents not removed, which word weights are
+	 * relative to.
+	 *
+	 * @return The number of live documents.
+	 */
+	protected int getLiveCount() {
+		return this.documents.getLiveCount();
+	}
+
+	/**
+	 * Returns the average number of words in a document.
+	 *
+	 * @return The average word count of the documents not removed.
+	 */
+	protected double getAverageWordCount() {
+		return this.documents.getAverageCount();
+	}
+
+	/**
+	 * Returns the norm of a document under the scoring model. Computed on every
+	 * call here, since the average word count changes as documents are added;
+	 * immutable indexes compute every norm once instead.
+	 *
+	 * @param document The document id.
+	 * @return The norm of the document.
+	 */
+	protected double getNorm(int document) {
+		return this.scoring.getNorm(getWordCount(document), getAverageWordCount());
+	}
+
+	/**
+	 * Turns the summed weight of a document into its score.
+	 *
+	 * @param weight   The summed weight of every matching posting.
+	 * @param document The document id.
+	 * @return The score of the document.
+	 */
+	private double score(double weight, int document) {
+		return this.scoring.score(weight, getNorm(document));
+	}
+
+	/**
+	 * A helper method called by the two search methods. Walks the postings
+	 * document at a time and creates one Result per matching document, then
+	 * sorts them.
+	 *
+	 * @param postings The postings of every word being searched.
+	 * @return The sorted Results.
+	 */
+	protected ArrayList<Result> searchHelper(Collection<PostingIterator> postings) {
+		ArrayList<Result> results = new ArrayList<>();
+		PostingMerger merger = new PostingMerger(postings, getDocumentCount(), this.scoring.weighsPostings());
+		int document;
+
+		while ((document = merger.nextDocument()) != PostingIterator.NO_MORE_DOCUMENTS) {
+			results.add(new Result(document, merger.getFrequency(), score(merger.getWeight(), document)));
+		}
+
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Like {@link #searchHelper(Collection)}, but only keeps the best Results.
+	 * The Results pass through a heap holding at most {@code k} of them, with the
+	 * worst kept Result on top, so selecting them costs O(n log k) instead of
+	 * sorting all n matches.
+	 *
+	 * When every word has a known upper bound on its score, the postings are
+	 * evaluated with MaxScore: once the heap is full, the words whose bounds add
+	 * up to less than the worst kept score cannot put a document in the heap on
+	 * their own, so only documents found by the other words are considered, and
+	 * a document is dropped as soon as its score so far plus the bounds of the
+	 * words not yet checked falls short.
+	 *
+	 * @param postings The postings of every word being searched.
+	 * @param k        The most Results to return.
+	 * @return The best Results, sorted.
+	 */
+	protected ArrayList<Result> searchHelper(Collection<PostingIterator> postings, int k) {
+		if (k <= 0) {
+			return new ArrayList<>();
+		}
+
+		PriorityQueue<Result> best = new PriorityQueue<>(k, Collections.reverseOrder());
+		boolean bounded = true;
+
+		for (PostingIterator iterator : postings) {
+			if (Double.isInfinite(iterator.getMaxScore())) {
+				bounded = false;
+				break;
+			}
+		}
+
+		if (bounded && postings.size() <= MAX_SCORE_LIMIT) {
+			maxScore(postings, k, best);
+		} else {
+			PostingMerger merger = new PostingMerger(postings, getDocumentCount(), this.scoring.weighsPostings());
+			int document;
+
+			while ((document = merger.nextDocument()) != PostingIterator.NO_MORE_DOCUMENTS) {
+				offer(best, k, document, merger.getFrequency(), score(merger.getWeight(), document));
+			}
+		}
+
+		return drain(best);
+	}
+
+	/**
+	 * Empties a heap of Results into a list, best first.
+	 *
+	 * @param best The heap of kept Results, worst on top.
+	 * @return The Results, sorted.
+	 */
+	private static ArrayList<Result> drain(PriorityQueue<Result> best) {
+		ArrayList<Result> results = new ArrayList<>(best.size());
+		while (!best.isEmpty()) {
+			results.add(best.poll());
+		}
+		Collections.reverse(results);
+		return results;
+	}
+
+	/**
+	 * Fills a heap with the best Results using MaxScore pruning.
+	 *
+	 * @param postings The postings of every word being searched, all with a
+	 *                 known bound.
+	 * @param k        The most Results to keep.
+	 * @param best     The heap of kept Results, worst on top.
+	 */
+	private void maxScore(Collection<PostingIterator> postings, int k, PriorityQueue<Result> best) {
+		PostingIterator[] iterators = postings.toArray(new PostingIterator[0]);
+		Arrays.sort(iterators, (a, b) -> Double.compare(a.getMaxScore(), b.getMaxScore()));
+
+		// bounds[i] is the most the first i + 1 words can add up to
+		double[] bounds = new double[iterators.length];
+		double sum = 0;
+		for (int i = 0; i < iterators.length; i++) {
+			sum += iterators[i].getMaxScore();
+			bounds[i] = sum;
+			iterators[i].nextDocument();
+		}
+
+		// the words before this one are not enough to enter the heap on their own
+		int essential = 0;
+
+		while (essential < iterators.length) {
+			int document = PostingIterator.NO_MORE_DOCUMENTS;
+			for (int i = essential; i < iterators.length; i++) {
+				document = Math.min(document, iterators[i].getDocument());
+			}
+
+			if (document == PostingIterator.NO_MORE_DOCUMENTS) {
+				return;
+			}
+
+			double norm = getNorm(document);
+			int count = 0;
+			double weight = 0;
+
+			for (int i = essential; i < iterators.length; i++) {
+				if (iterators[i].getDocument() == document) {
+					count += iterators[i].getFrequency();
+					weight += iterators[i].getWeight();
+					iterators[i].nextDocument();
+				}
+			}
+
+			double threshold = best.size() < k ? Double.NEGATIVE_INFINITY : best.peek().getScore();
+			boolean pruned = false;
+
+			for (int i = essential - 1; i >= 0; i--) {
+				if (belowThreshold(this.scoring.score(weight, norm) + bounds[i], threshold)) {
+					pruned = true;
+					break;
+				}
+
+				if (iterators[i].getDocument() < document) {
+					iterators[i].advance(document);
+				}
+
+				if (iterators[i].getDocument() == document) {
+					count += iterators[i].getFrequency();
+					weight += iterators[i].getWeight();
+				}
+			}
+
+			if (!pruned && offer(best, k, document, count, this.scoring.score(weight, norm)) && best.size() == k) {
+				threshold = best.peek().getScore();
+
+				while (essential < iterators.length && belowThreshold(bounds[essential], threshold)) {
+					essential++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether an upper bound on a score is certainly below the worst kept
+	 * score. The bound is a sum of per-word fractions while the score is a single
+	 * fraction, so a small margin covers rounding. A document scoring exactly the
+	 * threshold is never dropped, since it may still win on count or location.
+	 *
+	 * @param bound     An upper bound on the score of a document.
+	 * @param threshold The worst kept score.
+	 * @return True if the document cannot be kept.
+	 */
+	private static boolean belowThreshold(double bound, double threshold) {
+		return bound * (1 + 1e-9) < threshold;
+	}
+
+	/**
+	 * Adds a match to a heap of at most {@code k} Results if it beats the worst
+	 * kept Result. The raw count and score are compared first, so losing matches
+	 * are never turned into Results.
+	 *
+	 * @param best     The heap of kept Results, worst on top.
+	 * @param k        The most Results to keep.
+	 * @param document The document id of the match.
+	 * @param count    The number of matches in the document.
+	 * @param score    The score of the document.
+	 * @return True if the match was kept.
+	 */
+	private boolean offer(PriorityQueue<Result> best, int k, int document, int count, double score) {
+		if (best.size() < k) {
+			best.add(new Result(document, count, score));
+			return true;
+		}
+
+		Result worst = best.peek();
+		int compared = Double.compare(worst.score, score);
+		if (compared == 0) {
+			compared = Integer.compare(worst.count, count);
+		}
+
+		if (compared > 0) {
+			return false;
+		}
+
+		Result result = new Result(document, count, score);
+		if (compared < 0 || result.compareTo(worst) < 0) {
+			best.poll();
+			best.add(result);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns an upper bound on what a word adds to the score of any single
+	 * document, for storing alongside its postings.
+	 *
+	 * @param word The word.
+	 * @return The largest term frequency over document word count of any
+	 *         posting of the word.
+	 */
+	protected double getMaxScore(String word) {
+		ArrayList<PostingIterator> postings = new ArrayList<>();
+		collectPostings(word, true, postings);
+
+		double max = 0;
+		for (PostingIterator iterator : postings) {
+			while (iterator.nextDocument() != PostingIterator.NO_MORE_DOCUMENTS) {
+				max = Math.max(max, (double) iterator.getFrequency() / getWordCount(iterator.getDocument()));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns an immutable copy of the index laid out for searching. The copy
+	 * needs no locking, so any number of threads may search it at once. Removed
+	 * documents are left out of the copy.
+	 *
+	 * @return An immutable index with the same contents.
+	 */
+	public InvertedIndex freeze() {
+		TreeMap<String, PostingList> postings = new TreeMap<>();
+
+		for (Map.Entry<String, PostingList> entry : this.invertedIndex.entrySet()) {
+			postings.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		FrozenInvertedIndex frozen = new FrozenInvertedIndex(postings, this.documents, this.positions);
+		frozen.setScoringModel(this.scoring);
+		return frozen;
+	}
+
+	/**
+	 * Freezes the postings of some words in the documents with ids from
+	 * {@code first} up to {@code last}, as one segment of a larger index. Only
+	 * the postings in the range are copied, so this costs next to nothing for
+	 * words with none there.
+	 *
+	 * @param first The first document id in the range.
+	 * @param last  The document id just past the range.
+	 * @param words The words whose postings to copy, or null for every word.
+	 * @return An immutable index of the range, in which documents keep their ids
+	 *         less {@code first}.
+	 */
+	protected FrozenInvertedIndex freeze(int first, int last, Collection<String> words) {
+		TreeMap<String, PostingList> postings = new TreeMap<>();
+
+		for (String word : words == null ? this.invertedIndex.keySet() : words) {
+			PostingList list = this.invertedIndex.get(word);
+			PostingList range = list == null ? null : list.range(first, last);
+
+			if (range != null && range.size() > 0) {
+				postings.put(word, range);
+			}
+		}
+		return new FrozenInvertedIndex(postings, this.documents, this.positions, first, last);
 	}
 
 	/**
@@ -384,4 +1256,380 @@ public class InvertedIndex {
 			return partialSearch(queries);
 		}
 	}
+
+	/**
+	 * Returns only the best Results of a search, for callers such as the web
+	 * interface that show a single page of them.
+	 *
+	 * @param queries The collection of queries.
+	 * @param exact   Is it an exact search?
+	 * @param k       The most Results to return.
+	 * @return The best {@code k} Results, sorted the same way as
+	 *         {@link #search(Collection, boolean)}.
+	 */
+	public ArrayList<Result> search(Collection<String> queries, boolean exact, int k) {
+		ArrayList<PostingIterator> postings = new ArrayList<>();
+
+		for (String query : queries) {
+			collectScored(query, exact, postings);
+		}
+
+		return searchHelper(postings, k);
+	}
+
+	/**
+	 * Searches for the documents that match every query, rather than any of
+	 * them. A partial query matches a document if any word starting with it
+	 * does. Counts and scores are the same as {@link #search(Collection, boolean)}
+	 * gives those documents.
+	 *
+	 * @param queries The collection of queries.
+	 * @param exact   Is it an exact search?
+	 * @return The sorted Results.
+	 */
+	public ArrayList<Result> conjunctiveSearch(Collection<String> queries, boolean exact) {
+		PostingIterator conjunction = collectConjunction(queries, exact);
+
+		if (conjunction == null) {
+			return new ArrayList<>();
+		}
+		return searchHelper(Collections.singletonList(conjunction));
+	}
+
+	/**
+	 * Returns only the best Results of {@link #conjunctiveSearch(Collection, boolean)}.
+	 *
+	 * @param queries The collection of queries.
+	 * @param exact   Is it an exact search?
+	 * @param k       The most Results to return.
+	 * @return The best {@code k} Results, sorted.
+	 */
+	public ArrayList<Result> conjunctiveSearch(Collection<String> queries, boolean exact, int k) {
+		PostingIterator conjunction = collectConjunction(queries, exact);
+
+		if (conjunction == null) {
+			return new ArrayList<>();
+		}
+		return searchHelper(Collections.singletonList(conjunction), k);
+	}
+
+	/**
+	 * Searches for a parsed query, which may hold phrases and proximity groups
+	 * besides single words. A query of single words is searched exactly like
+	 * {@link #search(Collection, boolean)}.
+	 *
+	 * @param query The parsed query.
+	 * @param exact Is it an exact search? Only applies to the single words.
+	 * @return The sorted Results.
+	 */
+	public ArrayList<Result> search(Query query, boolean exact) {
+		if (!query.hasClauses()) {
+			return search(query.getWords(), exact);
+		}
+		return proximitySearch(query, exact, false, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns only the best Results of {@link #search(Query, boolean)}.
+	 *
+	 * @param query The parsed query.
+	 * @param exact Is it an exact search? Only applies to the single words.
+	 * @param k     The most Results to return.
+	 * @return The best {@code k} Results, sorted.
+	 */
+	public ArrayList<Result> search(Query query, boolean exact, int k) {
+		if (!query.hasClauses()) {
+			return search(query.getWords(), exact, k);
+		}
+		return proximitySearch(query, exact, false, k);
+	}
+
+	/**
+	 * Returns only the best Results of a parsed query whose single words must
+	 * all match as well as its phrases and proximity groups.
+	 *
+	 * @param query The parsed query.
+	 * @param exact Is it an exact search? Only applies to the single words.
+	 * @param k     The most Results to return.
+	 * @return The best {@code k} Results, sorted.
+	 */
+	public ArrayList<Result> conjunctiveSearch(Query query, boolean exact, int k) {
+		if (!query.hasClauses()) {
+			return conjunctiveSearch(query.getWords(), exact, k);
+		}
+		return proximitySearch(query, exact, true, k);
+	}
+
+	/**
+	 * Searches for the documents matching every phrase and proximity group of a
+	 * query. The single words of the query add to the count and score of those
+	 * documents; they are required too when searching for all of them. The
+	 * score of a document is its weighted count over its word count, so matches
+	 * with their words closer together score higher.
+	 *
+	 * @param query The parsed query, with at least one clause.
+	 * @param exact Is it an exact search? Only applies to the single words.
+	 * @param all   Whether every single word must match as well.
+	 * @param k     The most Results to return.
+	 * @return The best {@code k} Results, sorted.
+	 */
+	private ArrayList<Result> proximitySearch(Query query, boolean exact, boolean all, int k) {
+		if (k <= 0) {
+			return new ArrayList<>();
+		}
+
+		ArrayList<PostingIterator> required = new ArrayList<>();
+		ArrayList<PostingIterator> optional = new ArrayList<>();
+
+		for (Query.Clause clause : query.getClauses()) {
+			PostingIterator proximity = collectProximity(clause);
+
+			if (proximity == null) {
+				return new ArrayList<>();
+			}
+			required.add(proximity);
+		}
+
+		if (all && !query.getWords().isEmpty()) {
+			PostingIterator conjunction = collectConjunction(query.getWords(), exact);
+
+			if (conjunction == null) {
+				return new ArrayList<>();
+			}
+			required.add(conjunction);
+		} else {
+			for (String word : query.getWords()) {
+				collectScored(word, exact, optional);
+			}
+		}
+
+		PostingIterator matches = required.size() == 1 ? required.get(0) : new ConjunctionIterator(required);
+		PriorityQueue<Result> best = new PriorityQueue<>(Math.min(k, 64), Collections.reverseOrder());
+		int document;
+
+		while ((document = matches.nextDocument()) != PostingIterator.NO_MORE_DOCUMENTS) {
+			int count = matches.getFrequency();
+			double weight = matches.getWeight();
+
+			for (PostingIterator iterator : optional) {
+				if (iterator.getDocument() < document) {
+					iterator.advance(document);
+				}
+
+				if (iterator.getDocument() == document) {
+					count += iterator.getFrequency();
+					weight += iterator.getWeight();
+				}
+			}
+			offer(best, k, document, count, score(weight, document));
+		}
+
+		return drain(best);
+	}
+
+	/**
+	 * Builds an iterator over the documents matching a phrase or proximity
+	 * group. Its words are always matched exactly. Without positions there is
+	 * no telling how close together the words are, so the clause matches every
+	 * document holding all of them.
+	 *
+	 * @param clause The phrase or proximity group.
+	 * @return The iterator, or null if some word is not stored.
+	 */
+	private PostingIterator collectProximity(Query.Clause clause) {
+		ArrayList<PostingIterator> terms = new ArrayList<>();
+
+		for (String term : clause.getTerms()) {
+			int before = terms.size();
+			collectPostings(term, true, terms);
+
+			if (terms.size() == before) {
+				return null;
+			}
+		}
+		PostingIterator matches = hasPositions() ? new ProximityIterator(terms, clause.getSlop(), clause.isOrdered())
+				: new ConjunctionIterator(terms);
+		return this.scoring.weighsPostings() ? new ScoredPostings(matches) : matches;
+	}
+
+	/**
+	 * Builds an iterator over the documents matching every query.
+	 *
+	 * @param queries The collection of queries.
+	 * @param exact   Is it an exact search?
+	 * @return The iterator, or null if some query matches nothing.
+	 */
+	private PostingIterator collectConjunction(Collection<String> queries, boolean exact) {
+		ArrayList<PostingIterator> conjunction = new ArrayList<>();
+
+		for (String query : queries) {
+			ArrayList<PostingIterator> postings = new ArrayList<>();
+			collectScored(query, exact, postings);
+
+			if (postings.isEmpty()) {
+				return null;
+			}
+			conjunction.add(postings.size() == 1 ? postings.get(0)
+					: new PostingMerger(postings, getDocumentCount(), this.scoring.weighsPostings()));
+		}
+
+		return conjunction.isEmpty() ? null : new ConjunctionIterator(conjunction);
+	}
+
+	/**
+	 * Iterates over the postings of another iterator, skipping removed
+	 * documents.
+	 */
+	private static class LivePostings implements PostingIterator {
+
+		/**
+		 * The iterator over every posting.
+		 */
+		private final PostingIterator iterator;
+
+		/**
+		 * The ids of removed documents.
+		 */
+		private final BitSet deleted;
+
+		/**
+		 * Initializes an iterator that skips removed documents.
+		 *
+		 * @param iterator the iterator over every posting
+		 * @param deleted  the ids of removed documents
+		 */
+		public LivePostings(PostingIterator iterator, BitSet deleted) {
+			this.iterator = iterator;
+			this.deleted = deleted;
+		}
+
+		@Override
+		public int nextDocument() {
+			return skip(this.iterator.nextDocument());
+		}
+
+		@Override
+		public int advance(int target) {
+			return skip(this.iterator.advance(target));
+		}
+
+		/**
+		 * Moves past removed documents.
+		 *
+		 * @param document the document the iterator is on
+		 * @return the first document at or after it that was not removed
+		 */
+		private int skip(int document) {
+			while (document != NO_MORE_DOCUMENTS && this.deleted.get(document)) {
+				document = this.iterator.nextDocument();
+			}
+			return document;
+		}
+
+		@Override
+		public int getDocument() {
+			return this.iterator.getDocument();
+		}
+
+		@Override
+		public int getFrequency() {
+			return this.iterator.getFrequency();
+		}
+
+		@Override
+		public int getDocumentFrequency() {
+			return this.iterator.getDocumentFrequency();
+		}
+
+		@Override
+		public double getMaxScore() {
+			return this.iterator.getMaxScore();
+		}
+
+		@Override
+		public int[] getPositions() {
+			return this.iterator.getPositions();
+		}
+	}
+
+	/**
+	 * Weighs the postings of a word, or the matches of a phrase or proximity
+	 * group, with the scoring model. The weight of the word is worked out once,
+	 * so each posting costs one call to {@link ScoringModel#weigh(double, double, double)}.
+	 */
+	private class ScoredPostings implements PostingIterator {
+
+		/**
+		 * The iterator over the postings to weigh.
+		 */
+		private final PostingIterator iterator;
+
+		/**
+		 * The scoring model in use when the search started.
+		 */
+		private final ScoringModel model;
+
+		/**
+		 * The weight of the word.
+		 */
+		private final double termWeight;
+
+		/**
+		 * The upper bound on the weight of any posting.
+		 */
+		private final double maxScore;
+
+		/**
+		 * Initializes an iterator that weighs postings.
+		 *
+		 * @param iterator the iterator over the postings to weigh, which has not
+		 *                 been advanced
+		 */
+		public ScoredPostings(PostingIterator iterator) {
+			this.iterator = iterator;
+			this.model = scoring;
+			this.termWeight = this.model.getTermWeight(iterator.getDocumentFrequency(), getLiveCount());
+			this.maxScore = this.model.getMaxScore(this.termWeight, iterator.getMaxScore(), getAverageWordCount());
+		}
+
+		@Override
+		public int nextDocument() {
+			return this.iterator.nextDocument();
+		}
+
+		@Override
+		public int advance(int target) {
+			return this.iterator.advance(target);
+		}
+
+		@Override
+		public int getDocument() {
+			return this.iterator.getDocument();
+		}
+
+		@Override
+		public int getFrequency() {
+			return this.iterator.getFrequency();
+		}
+
+		@Override
+		public double getWeight() {
+			return this.model.weigh(this.iterator.getWeight(), this.termWeight, getNorm(this.iterator.getDocument()));
+		}
+
+		@Override
+		public int getDocumentFrequency() {
+			return this.iterator.getDocumentFrequency();
+		}
+
+		@Override
+		public double getMaxScore() {
+			return this.maxScore;
+		}
+
+		@Override
+		public int[] getPositions() {
+			return this.iterator.getPositions();
+		}
+	}
 }
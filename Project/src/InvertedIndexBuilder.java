@@ -2,13 +2,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * This builder class will initialize an inverted index with a provided path.
@@ -22,11 +24,6 @@ public class InvertedIndexBuilder {
 	 */
 	private final InvertedIndex invertedIndex;
 
-	/**
-	 * The default stemming algorithm.
-	 */
-	private static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
-
 	/**
 	 * @param invertedIndex Inverted Index structure that will be built.
 	 */
@@ -53,45 +50,70 @@ public class InvertedIndexBuilder {
 	 * @throws IOException
 	 */
 	public static void addPath(Path inputFile, InvertedIndex index) throws IOException {
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
+		Stemmer stemmer = CachingStemmer.ENGLISH;
 
 		try (BufferedReader reader = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);) {
 			String line = reader.readLine();
-			String location = inputFile.toString();
-			int i = 0;
+			TextTokenizer tokenizer = new TextTokenizer();
+			ArrayList<String> stems = new ArrayList<>();
 
 			while (line != null) {
-				String[] parsed = TextParser.parse(line);
-				for (String word : parsed) {
-					String stemmed = stemmer.stem(word).toString();
-					index.add(stemmed, location, ++i);
+				tokenizer.reset(line);
+				while (tokenizer.next()) {
+					stems.add(stemmer.stem(tokenizer.getToken()).toString());
 				}
 				line = reader.readLine();
 			}
+			index.addDocument(inputFile.toString(), stems);
 		}
 	}
 
 	/**
-	 * Checks if path is a text file
+	 * Checks if a path ends in a text file extension, without looking at the
+	 * file itself.
 	 *
-	 * @param path
-	 * @return returns true if file is a text file false if not
+	 * @param path the path to check
+	 * @return true if the path ends in .txt or .text, ignoring case
 	 */
-	public static boolean isTextFile(Path path) {
+	public static boolean hasTextExtension(Path path) {
 		String lower = path.toString().toLowerCase();
-		return ((lower.endsWith(".txt") || lower.endsWith(".text")) && Files.isRegularFile(path));
+		return lower.endsWith(".txt") || lower.endsWith(".text");
 	}
 
 	/**
-	 * Returns a list of all subfiles from a starting file.
+	 * Walks every file under a starting path, following links, and hands each
+	 * text file to a visitor as soon as it is found. Nothing is collected, so
+	 * the first file can be processed before the walk is over, and memory does
+	 * not grow with the size of the tree. The attributes read by the walk are
+	 * passed along so the visitor does not have to read them again. A file or
+	 * directory under the starting path that can not be read is reported and
+	 * skipped, so one bad entry does not end the walk.
 	 *
-	 * @param path
-	 * @return returns a list of all subfiles from a starting file.
-	 * @throws IOException
+	 * @param path    the starting path, which may itself be a text file
+	 * @param visitor the visitor to hand every text file to
+	 * @throws IOException if the starting path can not be read, or the visitor
+	 *                     fails
 	 */
-	public static List<Path> getTextFiles(Path path) throws IOException {
-		List<Path> list = Files.walk(path, FileVisitOption.FOLLOW_LINKS).collect(Collectors.toList());
-		return list;
+	public static void walkTextFiles(Path path, TextFileVisitor visitor) throws IOException {
+		Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+						if (attributes.isRegularFile() && hasTextExtension(file)) {
+							visitor.visit(file, attributes);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+						if (file.equals(path)) {
+							throw e;
+						}
+						System.out.println("Problem encountered while adding file: " + file.toString());
+						return FileVisitResult.CONTINUE;
+					}
+				});
 	}
 
 	/**
@@ -101,11 +123,25 @@ public class InvertedIndexBuilder {
 	 * @throws IOException could happen
 	 */
 	public void traversePath(Path path) throws IOException {
-		for (Path currentPath : getTextFiles(path)) {
-			if (isTextFile(currentPath)) {
-				addPath(currentPath);
-			}
-		}
+		walkTextFiles(path, (file, attributes) -> addPath(file));
+	}
+
+	/**
+	 * Receives the text files found by {@link #walkTextFiles(Path, TextFileVisitor)}.
+	 *
+	 * @author nedimazar
+	 */
+	@FunctionalInterface
+	public interface TextFileVisitor {
+
+		/**
+		 * Processes a text file.
+		 *
+		 * @param file       the text file
+		 * @param attributes the attributes of the file
+		 * @throws IOException if processing the file fails
+		 */
+		void visit(Path file, BasicFileAttributes attributes) throws IOException;
 	}
 
 }
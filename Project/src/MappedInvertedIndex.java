@@ -0,0 +1,844 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only inverted index served straight out of a memory-mapped segment
+ * file. The word dictionary, postings and document table all stay in the
+ * mapped file, so the index costs next to nothing on the heap and opening it
+ * only maps the file instead of reading it.
+ *
+ * A segment file holds, in order: the postings of every word in the same
+ * layout as {@link PostingList#write(java.io.DataOutput)}, skip pointers into
+ * the longer posting lists, the words as a front-coded {@link TermDictionary},
+ * the locations, a fixed-width word table indexed by the ordinal of each word
+ * (with an upper bound on the score of each word), a fixed-width document
+ * table (with the rank of each location in sorted order), the document ids
+ * sorted by location, and a fixed-size trailer
+ * describing where each table starts and whether positions are stored.
+ *
+ * Reads only use absolute buffer access, so any number of threads may search
+ * the same instance.
+ *
+ * @author nedimazar
+ */
+public class MappedInvertedIndex extends InvertedIndex {
+
+	/**
+	 * The last four bytes of a segment file.
+	 */
+	private static final int SEGMENT_MAGIC = 0x4E535347;
+
+	/**
+	 * The version of the segment format.
+	 */
+	private static final int SEGMENT_VERSION = 6;
+
+	/**
+	 * The size of a word table entry in bytes.
+	 */
+	private static final int WORD_ENTRY = 2 * Integer.BYTES + Float.BYTES;
+
+	/**
+	 * The size of a document table entry in bytes.
+	 */
+	private static final int DOCUMENT_ENTRY = 3 * Integer.BYTES;
+
+	/**
+	 * The number of postings between skip pointers. A skip pointer holds the
+	 * document id of the posting just before it and where the next posting
+	 * starts, which is all that is needed to resume decoding there.
+	 */
+	private static final int SKIP_INTERVAL = 64;
+
+	/**
+	 * The size of the trailer in bytes.
+	 */
+	private static final int TRAILER = 10 * Integer.BYTES;
+
+	/**
+	 * The mapped segment file.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The number of words stored.
+	 */
+	private final int words;
+
+	/**
+	 * The number of documents stored.
+	 */
+	private final int documents;
+
+	/**
+	 * The words, mapped to their ordinals.
+	 */
+	private final TermDictionary dictionary;
+
+	/**
+	 * Where the word table starts.
+	 */
+	private final int wordTable;
+
+	/**
+	 * Where the document table starts.
+	 */
+	private final int documentTable;
+
+	/**
+	 * Where the document ids sorted by location start.
+	 */
+	private final int sortedTable;
+
+	/**
+	 * Where the postings section ends.
+	 */
+	private final int postingsEnd;
+
+	/**
+	 * Whether the postings hold positions, or only frequencies.
+	 */
+	private final boolean positions;
+
+	/**
+	 * The average word count of a document.
+	 */
+	private final double average;
+
+	/**
+	 * The norm of each document under the scoring model, or null while the
+	 * default model reads word counts straight from the mapped file.
+	 * Set just before the model, whose volatile write publishes it.
+	 */
+	private double[] norms;
+
+	/**
+	 * The merged postings of the short prefixes searched so far.
+	 */
+	private final ConcurrentHashMap<String, MergedPostings> merged;
+
+	/**
+	 * Initializes an index over a mapped segment.
+	 *
+	 * @param buffer the mapped segment file
+	 * @throws IOException if the buffer does not hold a segment
+	 */
+	private MappedInvertedIndex(ByteBuffer buffer) throws IOException {
+		super();
+		this.buffer = buffer;
+
+		int trailer = buffer.limit() - TRAILER;
+
+		if (trailer < 0 || buffer.getInt(trailer + 32) != SEGMENT_MAGIC
+				|| buffer.getInt(trailer + 36) != SEGMENT_VERSION) {
+			throw new IOException("Not a segment file.");
+		}
+
+		this.words = buffer.getInt(trailer);
+		this.documents = buffer.getInt(trailer + 4);
+		this.dictionary = new TermDictionary(buffer, buffer.getInt(trailer + 8));
+		this.wordTable = buffer.getInt(trailer + 12);
+		this.documentTable = buffer.getInt(trailer + 16);
+		this.sortedTable = buffer.getInt(trailer + 20);
+		this.postingsEnd = buffer.getInt(trailer + 24);
+		this.positions = buffer.getInt(trailer + 28) != 0;
+		this.merged = new ConcurrentHashMap<>();
+
+		long total = 0;
+		for (int id = 0; id < this.documents; id++) {
+			total += getWordCount(id);
+		}
+		this.average = this.documents == 0 ? 0 : (double) total / this.documents;
+	}
+
+	/**
+	 * Maps an existing segment file.
+	 *
+	 * @param segment the segment file
+	 * @return a read-only index over the segment
+	 * @throws IOException if unable to map the file or it is not a segment
+	 */
+	public static MappedInvertedIndex open(Path segment) throws IOException {
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Segment files are limited to 2GB: " + segment);
+			}
+
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new MappedInvertedIndex(mapped);
+		}
+	}
+
+	/**
+	 * Writes the words, postings and documents of an index as a segment file.
+	 *
+	 * @param invertedIndex the index to write
+	 * @param outputFile    where to write
+	 * @throws IOException if unable to write
+	 */
+	public static void write(InvertedIndex invertedIndex, Path outputFile) throws IOException {
+		Set<String> words = invertedIndex.getWords();
+		int documents = invertedIndex.getDocumentCount();
+		int[] postingOffsets = new int[words.size()];
+		int[] locationOffsets = new int[documents];
+
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(outputFile)))) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ByteArrayOutputStream skipBytes = new ByteArrayOutputStream();
+			DataOutputStream skips = new DataOutputStream(skipBytes);
+			int[] skipOffsets = new int[words.size()];
+
+			int i = 0;
+			for (String word : words) {
+				bytes.reset();
+				invertedIndex.writePostings(word, new DataOutputStream(bytes));
+
+				postingOffsets[i] = output.size();
+				skipOffsets[i] = skips.size();
+				writeSkips(bytes.toByteArray(), postingOffsets[i], invertedIndex.hasPositions(), skips);
+				bytes.writeTo(output);
+				i++;
+			}
+			int postingsEnd = output.size();
+
+			skipBytes.writeTo(output);
+			for (i = 0; i < skipOffsets.length; i++) {
+				skipOffsets[i] += postingsEnd;
+			}
+
+			int dictionary = output.size();
+			TermDictionary.write(words, output);
+
+			TreeMap<String, Integer> sorted = new TreeMap<>();
+			for (int id = 0; id < documents; id++) {
+				String location = invertedIndex.getLocation(id);
+				locationOffsets[id] = output.size();
+				writeString(location, output);
+				sorted.put(location, id);
+			}
+
+			int wordTable = output.size();
+			i = 0;
+			for (String word : words) {
+				output.writeInt(postingOffsets[i]);
+				output.writeInt(skipOffsets[i]);
+				output.writeFloat(Math.nextUp((float) invertedIndex.getMaxScore(word)));
+				i++;
+			}
+
+			int[] ranks = new int[documents];
+			i = 0;
+			for (int id : sorted.values()) {
+				ranks[id] = i++;
+			}
+
+			int documentTable = output.size();
+			for (int id = 0; id < documents; id++) {
+				output.writeInt(locationOffsets[id]);
+				output.writeInt(invertedIndex.getWordCount(id));
+				output.writeInt(ranks[id]);
+			}
+
+			int sortedTable = output.size();
+			for (int id : sorted.values()) {
+				output.writeInt(id);
+			}
+
+			output.writeInt(postingOffsets.length);
+			output.writeInt(documents);
+			output.writeInt(dictionary);
+			output.writeInt(wordTable);
+			output.writeInt(documentTable);
+			output.writeInt(sortedTable);
+			output.writeInt(postingsEnd);
+			output.writeInt(invertedIndex.hasPositions() ? 1 : 0);
+			output.writeInt(SEGMENT_MAGIC);
+			output.writeInt(SEGMENT_VERSION);
+		}
+	}
+
+	@Override
+	public Set<String> getWords() {
+		return this.dictionary.asSet();
+	}
+
+	@Override
+	public int size() {
+		return this.words;
+	}
+
+	@Override
+	public boolean hasPositions() {
+		return this.positions;
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		checkPositions();
+		int index = this.dictionary.find(word);
+		int document = findLocation(location);
+
+		if (index < 0 || document < 0) {
+			return Collections.emptySet();
+		}
+
+		Postings postings = new Postings(index);
+
+		if (postings.advance(document) != document) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(postings.getPositionList());
+	}
+
+	@Override
+	public SortedMap<String, Set<Integer>> getPostings(String word) {
+		checkPositions();
+		int index = this.dictionary.find(word);
+
+		if (index < 0) {
+			return Collections.emptySortedMap();
+		}
+
+		TreeMap<String, Set<Integer>> map = new TreeMap<>();
+		Postings postings = new Postings(index);
+
+		while (postings.nextDocument() != PostingIterator.NO_MORE_DOCUMENTS) {
+			map.put(getLocation(postings.getDocument()), Collections.unmodifiableSet(postings.getPositionList()));
+		}
+		return Collections.unmodifiableSortedMap(map);
+	}
+
+	@Override
+	public SortedMap<String, Integer> getFrequencies(String word) {
+		int index = this.dictionary.find(word);
+
+		if (index < 0) {
+			return Collections.emptySortedMap();
+		}
+
+		TreeMap<String, Integer> map = new TreeMap<>();
+		Postings postings = new Postings(index);
+
+		while (postings.nextDocument() != PostingIterator.NO_MORE_DOCUMENTS) {
+			map.put(getLocation(postings.getDocument()), postings.getFrequency());
+		}
+		return Collections.unmodifiableSortedMap(map);
+	}
+
+	@Override
+	public boolean add(String word, String filename, int position) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	@Override
+	public void readBinary(Path inputFile) throws IOException {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	@Override
+	public boolean removeLocation(String location) {
+		throw new UnsupportedOperationException("A mapped index is read-only.");
+	}
+
+	@Override
+	public void writeSegment(Path outputFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer copy = this.buffer.duplicate();
+			copy.clear();
+
+			while (copy.hasRemaining()) {
+				channel.write(copy);
+			}
+		}
+	}
+
+	@Override
+	public InvertedIndex freeze() {
+		return this;
+	}
+
+	@Override
+	public Map<String, Integer> getUnmodifiableCounts() {
+		TreeMap<String, Integer> map = new TreeMap<>();
+
+		for (int id = 0; id < this.documents; id++) {
+			map.put(getLocation(id), getWordCount(id));
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public boolean hasWord(String word) {
+		return this.dictionary.find(word) >= 0;
+	}
+
+	@Override
+	public boolean hasLocation(String word, String location) {
+		int index = this.dictionary.find(word);
+		int document = findLocation(location);
+
+		if (index < 0 || document < 0) {
+			return false;
+		}
+		return new Postings(index).advance(document) == document;
+	}
+
+	@Override
+	protected void collectPostings(String query, boolean exact, Collection<PostingIterator> postings) {
+		int index = this.dictionary.find(query);
+
+		if (exact) {
+			if (index >= 0) {
+				postings.add(new Postings(index));
+			}
+			return;
+		}
+
+		int from = index < 0 ? -(index + 1) : index;
+		int to = this.dictionary.prefixEnd(query);
+
+		if (!getScoringModel().weighsPostings() && MergedPostings.isWorthMerging(query, to - from)) {
+			postings.add(this.merged.computeIfAbsent(query, prefix -> merge(from, to)).iterator());
+			return;
+		}
+
+		for (int i = from; i < to; i++) {
+			postings.add(new Postings(i));
+		}
+	}
+
+	/**
+	 * Merges the postings of a range of words.
+	 *
+	 * @param from the index of the first word
+	 * @param to   the index just past the last word
+	 * @return the merged postings
+	 */
+	private MergedPostings merge(int from, int to) {
+		ArrayList<PostingIterator> postings = new ArrayList<>(to - from);
+
+		for (int i = from; i < to; i++) {
+			postings.add(new Postings(i));
+		}
+		return new MergedPostings(postings, this.documents, this::getWordCount);
+	}
+
+	@Override
+	protected void writePostings(String word, DataOutput output) throws IOException {
+		int index = this.dictionary.find(word);
+		int end = index + 1 < this.words ? getPostingsOffset(index + 1) : this.postingsEnd;
+
+		for (int offset = getPostingsOffset(index); offset < end; offset++) {
+			output.write(this.buffer.get(offset));
+		}
+	}
+
+	@Override
+	protected double getMaxScore(String word) {
+		return getMaxScore(this.dictionary.find(word));
+	}
+
+	@Override
+	protected int getDocumentCount() {
+		return this.documents;
+	}
+
+	@Override
+	protected String getLocation(int document) {
+		return readString(this.buffer.getInt(this.documentTable + DOCUMENT_ENTRY * document));
+	}
+
+	@Override
+	protected int getLocationRank(int document) {
+		return this.buffer.getInt(this.documentTable + DOCUMENT_ENTRY * document + 8);
+	}
+
+	@Override
+	protected int getWordCount(int document) {
+		return this.buffer.getInt(this.documentTable + DOCUMENT_ENTRY * document + 4);
+	}
+
+	@Override
+	protected int getLiveCount() {
+		return this.documents;
+	}
+
+	@Override
+	protected double getAverageWordCount() {
+		return this.average;
+	}
+
+	@Override
+	protected double getNorm(int document) {
+		double[] norms = this.norms;
+		return norms == null ? super.getNorm(document) : norms[document];
+	}
+
+	/**
+	 * Changes how search results are scored. Any model but the default has the
+	 * norm of every document computed once, on the heap.
+	 */
+	@Override
+	public void setScoringModel(ScoringModel scoring) {
+		double[] norms = null;
+
+		if (scoring != ScoringModel.MATCH_RATIO) {
+			norms = new double[this.documents];
+			for (int id = 0; id < norms.length; id++) {
+				norms[id] = scoring.getNorm(getWordCount(id), this.average);
+			}
+		}
+
+		this.norms = norms;
+		super.setScoringModel(scoring);
+	}
+
+	/**
+	 * Returns where the postings of a word start.
+	 *
+	 * @param index the index of the word
+	 * @return the offset of its postings
+	 */
+	private int getPostingsOffset(int index) {
+		return this.buffer.getInt(this.wordTable + WORD_ENTRY * index);
+	}
+
+	/**
+	 * Returns where the skip pointers of a word start.
+	 *
+	 * @param index the index of the word
+	 * @return the offset of its skip pointers
+	 */
+	private int getSkipsOffset(int index) {
+		return this.buffer.getInt(this.wordTable + WORD_ENTRY * index + 4);
+	}
+
+	/**
+	 * Returns the upper bound on the score of a word from the word table.
+	 *
+	 * @param index the index of the word
+	 * @return the bound, rounded up to a float
+	 */
+	private double getMaxScore(int index) {
+		return this.buffer.getFloat(this.wordTable + WORD_ENTRY * index + 8);
+	}
+
+	/**
+	 * Binary searches the documents sorted by location.
+	 *
+	 * @param location the location to find
+	 * @return the document id, or -1 if the location is not stored
+	 */
+	private int findLocation(String location) {
+		int low = 0;
+		int high = this.documents - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int document = this.buffer.getInt(this.sortedTable + 4 * middle);
+			int compared = getLocation(document).compareTo(location);
+
+			if (compared < 0) {
+				low = middle + 1;
+			} else if (compared > 0) {
+				high = middle - 1;
+			} else {
+				return document;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads a string stored as its varint byte length followed by its UTF-8
+	 * bytes.
+	 *
+	 * @param offset where the string starts
+	 * @return the string
+	 */
+	private String readString(int offset) {
+		int length = 0;
+		int shift = 0;
+		byte current;
+
+		do {
+			current = this.buffer.get(offset++);
+			length |= (current & 0x7F) << shift;
+			shift += 7;
+		} while (current < 0);
+
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = this.buffer.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a skip pointer for every {@link #SKIP_INTERVAL} postings of a word
+	 * after the first.
+	 *
+	 * @param postings  the postings of the word, as written by
+	 *                  {@link InvertedIndex#writePostings(String, DataOutput)}
+	 * @param start     where the postings will start in the segment
+	 * @param positions whether the postings hold positions
+	 * @param skips     where to write the skip pointers
+	 * @throws IOException if unable to write
+	 */
+	private static void writeSkips(byte[] postings, int start, boolean positions, DataOutputStream skips)
+			throws IOException {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(postings);
+		DataInputStream input = new DataInputStream(bytes);
+		int size = Varint.read(input);
+		int document = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (i > 0 && i % SKIP_INTERVAL == 0) {
+				skips.writeInt(document);
+				skips.writeInt(start + postings.length - bytes.available());
+			}
+
+			document += Varint.read(input);
+			Varint.read(input);
+			if (positions) {
+				Varint.read(input);
+				input.skipBytes(Varint.read(input));
+			}
+		}
+	}
+
+	/**
+	 * Writes a string as its varint byte length followed by its UTF-8 bytes.
+	 *
+	 * @param string the string to write
+	 * @param output where to write
+	 * @throws IOException if unable to write
+	 */
+	private static void writeString(String string, DataOutputStream output) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		Varint.write(bytes.length, output);
+		output.write(bytes);
+	}
+
+	/**
+	 * Iterates over postings stored in the mapped file.
+	 */
+	private class Postings implements PostingIterator {
+
+		/**
+		 * Where the next unread byte is.
+		 */
+		private int offset;
+
+		/**
+		 * The number of postings not yet visited.
+		 */
+		private int remaining;
+
+		/**
+		 * The current document id.
+		 */
+		private int document;
+
+		/**
+		 * The term frequency in the current document.
+		 */
+		private int frequency;
+
+		/**
+		 * The largest position in the current document.
+		 */
+		private int last;
+
+		/**
+		 * Where the encoded positions of the current document start.
+		 */
+		private int positions;
+
+		/**
+		 * The number of bytes of encoded positions in the current document.
+		 */
+		private int length;
+
+		/**
+		 * The number of postings of the word.
+		 */
+		private final int size;
+
+		/**
+		 * Where the skip pointers of the word start.
+		 */
+		private final int skips;
+
+		/**
+		 * The upper bound on the score of the word.
+		 */
+		private final double maxScore;
+
+		/**
+		 * Initializes an iterator over the postings of a word.
+		 *
+		 * @param word the index of the word
+		 */
+		public Postings(int word) {
+			this.offset = getPostingsOffset(word);
+			this.size = readVarint();
+			this.remaining = this.size;
+			this.document = -1;
+			this.skips = getSkipsOffset(word);
+			this.maxScore = MappedInvertedIndex.this.getMaxScore(word);
+		}
+
+		@Override
+		public int nextDocument() {
+			if (this.remaining == 0) {
+				this.document = NO_MORE_DOCUMENTS;
+				return this.document;
+			}
+
+			this.remaining--;
+			this.document = this.document < 0 ? readVarint() : this.document + readVarint();
+			this.frequency = readVarint();
+			if (MappedInvertedIndex.this.positions) {
+				this.last = readVarint();
+				this.length = readVarint();
+				this.positions = this.offset;
+				this.offset += this.length;
+			}
+			return this.document;
+		}
+
+		/**
+		 * Follows the skip pointers past every block of postings that ends before
+		 * the target, then decodes the rest one posting at a time.
+		 */
+		@Override
+		public int advance(int target) {
+			int block = (this.size - this.remaining) / SKIP_INTERVAL;
+			int blocks = (this.size - 1) / SKIP_INTERVAL;
+			int skipped = block;
+
+			// pointer j resumes at posting j * SKIP_INTERVAL and is stored at index j - 1
+			while (skipped < blocks && buffer.getInt(this.skips + 8 * skipped) < target) {
+				skipped++;
+			}
+
+			if (skipped > block) {
+				int pointer = this.skips + 8 * (skipped - 1);
+				this.document = buffer.getInt(pointer);
+				this.offset = buffer.getInt(pointer + 4);
+				this.remaining = this.size - skipped * SKIP_INTERVAL;
+			}
+
+			int document;
+			do {
+				document = nextDocument();
+			} while (document < target);
+
+			return document;
+		}
+
+		@Override
+		public int getDocument() {
+			return this.document;
+		}
+
+		@Override
+		public int getDocumentFrequency() {
+			return this.size;
+		}
+
+		@Override
+		public int getFrequency() {
+			return this.frequency;
+		}
+
+		@Override
+		public double getMaxScore() {
+			return this.maxScore;
+		}
+
+		@Override
+		public int[] getPositions() {
+			checkPositions();
+			int[] decoded = new int[this.frequency];
+			int offset = this.positions;
+			int value = 0;
+
+			for (int i = 0; i < this.frequency; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte current;
+
+				do {
+					current = buffer.get(offset++);
+					delta |= (current & 0x7F) << shift;
+					shift += 7;
+				} while (current < 0);
+
+				value += delta;
+				decoded[i] = value;
+			}
+			return decoded;
+		}
+
+		/**
+		 * Copies the positions of the current document out of the mapped file.
+		 *
+		 * @return the positions of the word in the current document
+		 */
+		public PositionList getPositionList() {
+			byte[] bytes = new byte[this.length];
+			for (int i = 0; i < this.length; i++) {
+				bytes[i] = buffer.get(this.positions + i);
+			}
+			return PositionList.wrap(bytes, this.frequency, this.last);
+		}
+
+		/**
+		 * Reads the next varint.
+		 *
+		 * @return the value read
+		 */
+		private int readVarint() {
+			int value = 0;
+			int shift = 0;
+			byte current;
+
+			do {
+				current = buffer.get(this.offset++);
+				value |= (current & 0x7F) << shift;
+				shift += 7;
+			} while (current < 0);
+
+			return value;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Scores a document by the number of matches over the number of words in it,
+ * so every word searched counts the same however common it is. This is the
+ * score written to the JSON results.
+ *
+ * @author nedimazar
+ */
+public class MatchRatioModel implements ScoringModel {
+
+	@Override
+	public double getTermWeight(int documentFrequency, int documentCount) {
+		return 1;
+	}
+
+	/**
+	 * Returns the word count itself.
+	 */
+	@Override
+	public double getNorm(int wordCount, double averageWordCount) {
+		return wordCount;
+	}
+
+	@Override
+	public boolean weighsPostings() {
+		return false;
+	}
+
+	@Override
+	public double weigh(double frequency, double termWeight, double norm) {
+		return frequency * termWeight;
+	}
+
+	@Override
+	public double score(double weight, double norm) {
+		return weight / norm;
+	}
+
+	@Override
+	public double getMaxScore(double termWeight, double maxRatio, double averageWordCount) {
+		return maxRatio * termWeight;
+	}
+
+	@Override
+	public String toString() {
+		return "matches / words";
+	}
+}
@@ -0,0 +1,149 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The postings of every word starting with a prefix, merged once into a
+ * single list with the frequencies of each document added up. Searching a
+ * short partial query such as "a" otherwise merges the postings of thousands
+ * of words every time; once merged, it walks one list as long as the number of
+ * documents matched.
+ *
+ * A merged list never changes, so it is only kept by immutable indexes, which
+ * build it the first time the prefix is searched. It no longer tells which
+ * word each match came from, so scoring models that weigh every word on its
+ * own search the words one by one instead.
+ *
+ * @author nedimazar
+ */
+public class MergedPostings {
+
+	/**
+	 * The fewest words a prefix must match to be worth merging.
+	 */
+	public static final int MIN_WORDS = 64;
+
+	/**
+	 * The longest prefix that is merged. Each prefix length adds at most one
+	 * merged posting per stored posting, which bounds the memory used.
+	 */
+	public static final int MAX_LENGTH = 3;
+
+	/**
+	 * The sorted document ids.
+	 */
+	private final int[] documents;
+
+	/**
+	 * The summed frequency of every word in each document.
+	 */
+	private final int[] frequencies;
+
+	/**
+	 * The largest summed frequency over document word count of any document.
+	 */
+	private final double maxScore;
+
+	/**
+	 * Merges the postings of several words.
+	 *
+	 * @param postings      the iterators over the postings of every word, none
+	 *                      of which have been advanced
+	 * @param documentCount the number of document ids in use
+	 * @param wordCounts    returns the word count of a document
+	 */
+	public MergedPostings(Collection<PostingIterator> postings, int documentCount, IntUnaryOperator wordCounts) {
+		PostingMerger merger = new PostingMerger(postings, documentCount);
+		int[] documents = new int[Math.max(1, merger.getDocumentFrequency())];
+		int[] frequencies = new int[documents.length];
+		int size = 0;
+		double max = 0;
+		int document;
+
+		while ((document = merger.nextDocument()) != PostingIterator.NO_MORE_DOCUMENTS) {
+			documents[size] = document;
+			frequencies[size++] = merger.getFrequency();
+			max = Math.max(max, (double) merger.getFrequency() / wordCounts.applyAsInt(document));
+		}
+
+		this.documents = Arrays.copyOf(documents, size);
+		this.frequencies = Arrays.copyOf(frequencies, size);
+		this.maxScore = max;
+	}
+
+	/**
+	 * Checks whether the words matching a prefix should be merged.
+	 *
+	 * @param prefix the prefix searched
+	 * @param words  the number of words starting with it
+	 * @return true if the prefix is short and matches many words
+	 */
+	public static boolean isWorthMerging(String prefix, int words) {
+		return prefix.length() <= MAX_LENGTH && words >= MIN_WORDS;
+	}
+
+	/**
+	 * Returns the number of documents in the list.
+	 *
+	 * @return the document frequency
+	 */
+	public int size() {
+		return this.documents.length;
+	}
+
+	/**
+	 * Estimates the memory used by the list.
+	 *
+	 * @return the estimated number of bytes
+	 */
+	public long getMemoryEstimate() {
+		return 8L * this.documents.length + 64;
+	}
+
+	/**
+	 * Returns an iterator over the merged postings.
+	 *
+	 * @return an iterator positioned before the first posting
+	 */
+	public PostingIterator iterator() {
+		return new PostingIterator() {
+			/** The index of the current posting. */
+			private int index = -1;
+
+			@Override
+			public int nextDocument() {
+				this.index++;
+				return getDocument();
+			}
+
+			@Override
+			public int advance(int target) {
+				this.index = PostingList.gallop(documents, this.index + 1, documents.length, target);
+				return getDocument();
+			}
+
+			@Override
+			public int getDocument() {
+				if (this.index < 0) {
+					return -1;
+				}
+				return this.index < documents.length ? documents[this.index] : NO_MORE_DOCUMENTS;
+			}
+
+			@Override
+			public int getFrequency() {
+				return frequencies[this.index];
+			}
+
+			@Override
+			public int getDocumentFrequency() {
+				return documents.length;
+			}
+
+			@Override
+			public double getMaxScore() {
+				return maxScore;
+			}
+		};
+	}
+}
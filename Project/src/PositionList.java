@@ -0,0 +1,432 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted set of word positions stored as delta-encoded variable length
+ * integers inside a single growable byte array. Positions are almost always
+ * added in increasing order, so appending costs one or two bytes per position
+ * instead of a boxed {@link Integer} plus a tree node.
+ *
+ * Positions are only boxed while iterating, which keeps the class usable
+ * anywhere a {@code Collection<Integer>} was expected before.
+ *
+ * @author nedimazar
+ */
+public class PositionList extends AbstractSet<Integer> {
+
+	/**
+	 * The initial capacity of the byte array.
+	 */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * The varint encoded deltas between consecutive positions.
+	 */
+	private byte[] data;
+
+	/**
+	 * The number of bytes of data in use.
+	 */
+	private int length;
+
+	/**
+	 * The number of positions stored.
+	 */
+	private int size;
+
+	/**
+	 * The largest position stored, used to compute the next delta.
+	 */
+	private int last;
+
+	/**
+	 * Initializes an empty position list.
+	 */
+	public PositionList() {
+		this.data = new byte[INITIAL_CAPACITY];
+		this.length = 0;
+		this.size = 0;
+		this.last = 0;
+	}
+
+	/**
+	 * Adds a position to the list, keeping it sorted and free of duplicates.
+	 *
+	 * @param position the position to add
+	 * @return true if the list was modified
+	 */
+	public boolean add(int position) {
+		if (this.size == 0 || position > this.last) {
+			append(position);
+			return true;
+		}
+
+		int[] positions = toIntArray();
+		int index = Arrays.binarySearch(positions, position);
+
+		if (index >= 0) {
+			return false;
+		}
+
+		index = -(index + 1);
+		clear();
+
+		for (int i = 0; i < index; i++) {
+			append(positions[i]);
+		}
+		append(position);
+		for (int i = index; i < positions.length; i++) {
+			append(positions[i]);
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean add(Integer position) {
+		return add(position.intValue());
+	}
+
+	/**
+	 * Adds every position of another list. When the other list starts after the
+	 * last position of this one, only its first delta is re-encoded and the rest
+	 * of its bytes are copied as they are.
+	 *
+	 * @param other the list to add
+	 * @return true if the list was modified
+	 */
+	public boolean addAll(PositionList other) {
+		return addAll(other, 0);
+	}
+
+	/**
+	 * Adds every position of another list moved up by an offset, as when the
+	 * other list holds the positions of a later part of the same text. Only the
+	 * first delta depends on the offset, so the fast path of
+	 * {@link #addAll(PositionList)} still applies.
+	 *
+	 * @param other  the list to add
+	 * @param offset the amount to add to every position of the other list
+	 * @return true if the list was modified
+	 */
+	public boolean addAll(PositionList other, int offset) {
+		if (other.size == 0) {
+			return false;
+		}
+
+		if (this.size == 0 || other.first() + offset > this.last) {
+			int first = other.first();
+			int skip = Varint.length(first);
+
+			append(first + offset);
+			ensureCapacity(this.length + other.length - skip);
+			System.arraycopy(other.data, skip, this.data, this.length, other.length - skip);
+			this.length += other.length - skip;
+			this.size += other.size - 1;
+			this.last = other.last + offset;
+			return true;
+		}
+
+		int[] mine = toIntArray();
+		int[] theirs = other.toIntArray();
+		for (int k = 0; k < theirs.length; k++) {
+			theirs[k] += offset;
+		}
+		int before = this.size;
+		int i = 0;
+		int j = 0;
+
+		clear();
+
+		while (i < mine.length || j < theirs.length) {
+			if (j == theirs.length || (i < mine.length && mine[i] < theirs[j])) {
+				append(mine[i++]);
+			} else if (i == mine.length || theirs[j] < mine[i]) {
+				append(theirs[j++]);
+			} else {
+				append(mine[i++]);
+				j++;
+			}
+		}
+
+		return this.size != before;
+	}
+
+	/**
+	 * Returns the smallest position stored.
+	 *
+	 * @return the first position
+	 * @throws NoSuchElementException if the list is empty
+	 */
+	public int first() {
+		if (this.size == 0) {
+			throw new NoSuchElementException();
+		}
+
+		int value = 0;
+		int shift = 0;
+		int offset = 0;
+		byte current;
+
+		do {
+			current = this.data[offset++];
+			value |= (current & 0x7F) << shift;
+			shift += 7;
+		} while (current < 0);
+
+		return value;
+	}
+
+	/**
+	 * Returns the largest position stored.
+	 *
+	 * @return the last position
+	 * @throws NoSuchElementException if the list is empty
+	 */
+	public int last() {
+		if (this.size == 0) {
+			throw new NoSuchElementException();
+		}
+		return this.last;
+	}
+
+	/**
+	 * Decodes every position into a new array.
+	 *
+	 * @return the positions in increasing order
+	 */
+	public int[] toIntArray() {
+		return decode(this.data, 0, this.size);
+	}
+
+	/**
+	 * Decodes positions encoded like those of a list, wherever they are stored.
+	 *
+	 * @param data   the array holding the encoded positions
+	 * @param offset where the encoded positions start
+	 * @param size   the number of positions encoded
+	 * @return the positions in increasing order
+	 */
+	public static int[] decode(byte[] data, int offset, int size) {
+		int[] positions = new int[size];
+		int value = 0;
+
+		for (int i = 0; i < size; i++) {
+			int delta = 0;
+			int shift = 0;
+			byte current;
+
+			do {
+				current = data[offset++];
+				delta |= (current & 0x7F) << shift;
+				shift += 7;
+			} while (current < 0);
+
+			value += delta;
+			positions[i] = value;
+		}
+
+		return positions;
+	}
+
+	/**
+	 * Shrinks the byte array to the number of bytes in use. Worth calling once a
+	 * list is done growing.
+	 */
+	public void compact() {
+		if (this.data.length > this.length) {
+			this.data = Arrays.copyOf(this.data, Math.max(this.length, 1));
+		}
+	}
+
+	/**
+	 * Returns the number of bytes used to encode the positions.
+	 *
+	 * @return the encoded size in bytes
+	 */
+	public int byteSize() {
+		return this.length;
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public boolean contains(Object object) {
+		if (!(object instanceof Integer) || this.size == 0) {
+			return false;
+		}
+
+		int position = (Integer) object;
+		return position <= this.last && Arrays.binarySearch(toIntArray(), position) >= 0;
+	}
+
+	@Override
+	public void clear() {
+		this.length = 0;
+		this.size = 0;
+		this.last = 0;
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		return new Iterator<>() {
+			/** The index of the next position. */
+			private int index = 0;
+
+			/** The byte offset of the next delta. */
+			private int offset = 0;
+
+			/** The previously returned position. */
+			private int value = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.index < size;
+			}
+
+			@Override
+			public Integer next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				int delta = 0;
+				int shift = 0;
+				byte current;
+
+				do {
+					current = data[this.offset++];
+					delta |= (current & 0x7F) << shift;
+					shift += 7;
+				} while (current < 0);
+
+				this.index++;
+				this.value += delta;
+				return this.value;
+			}
+		};
+	}
+
+	/**
+	 * Writes the list as its size, last position and encoded bytes.
+	 *
+	 * @param output where to write
+	 * @throws IOException if unable to write
+	 */
+	public void write(DataOutput output) throws IOException {
+		Varint.write(this.size, output);
+		Varint.write(this.last, output);
+		Varint.write(this.length, output);
+		output.write(this.data, 0, this.length);
+	}
+
+	/**
+	 * Reads a list written by {@link #write(DataOutput)}. The encoded bytes are
+	 * read as they are without being decoded.
+	 *
+	 * @param input where to read from
+	 * @return the list read
+	 * @throws IOException if unable to read
+	 */
+	public static PositionList read(DataInput input) throws IOException {
+		PositionList positions = new PositionList();
+		positions.size = Varint.read(input);
+		positions.last = Varint.read(input);
+		positions.length = Varint.read(input);
+		positions.data = new byte[Math.max(positions.length, 1)];
+		input.readFully(positions.data, 0, positions.length);
+		return positions;
+	}
+
+	/**
+	 * Creates a list around positions that are already encoded.
+	 *
+	 * @param data the encoded positions
+	 * @param size the number of positions encoded
+	 * @param last the largest position encoded
+	 * @return a list using the given bytes
+	 */
+	public static PositionList wrap(byte[] data, int size, int last) {
+		PositionList positions = new PositionList();
+		positions.data = data.length == 0 ? new byte[1] : data;
+		positions.length = data.length;
+		positions.size = size;
+		positions.last = last;
+		return positions;
+	}
+
+	/**
+	 * Creates a list around positions that are already encoded, decoding them
+	 * once to find the largest.
+	 *
+	 * @param data the encoded positions
+	 * @param size the number of positions encoded
+	 * @return a list using the given bytes
+	 */
+	public static PositionList wrap(byte[] data, int size) {
+		PositionList positions = wrap(data, size, 0);
+		int[] decoded = positions.toIntArray();
+		positions.last = size == 0 ? 0 : decoded[size - 1];
+		return positions;
+	}
+
+	/**
+	 * Returns a copy of the list that shares nothing with it.
+	 *
+	 * @return a new list with the same positions
+	 */
+	public PositionList copy() {
+		return wrap(Arrays.copyOf(this.data, this.length), this.size, this.last);
+	}
+
+	/**
+	 * Copies the encoded positions into an array.
+	 *
+	 * @param target where to copy to
+	 * @param offset where in the array to start
+	 * @return the offset just past the copied bytes
+	 */
+	public int copyBytes(byte[] target, int offset) {
+		System.arraycopy(this.data, 0, target, offset, this.length);
+		return offset + this.length;
+	}
+
+	/**
+	 * Appends a position known to be larger than every stored position.
+	 *
+	 * @param position the position to append
+	 */
+	private void append(int position) {
+		int delta = this.size == 0 ? position : position - this.last;
+
+		ensureCapacity(this.length + 5);
+
+		while ((delta & ~0x7F) != 0) {
+			this.data[this.length++] = (byte) ((delta & 0x7F) | 0x80);
+			delta >>>= 7;
+		}
+		this.data[this.length++] = (byte) delta;
+
+		this.size++;
+		this.last = position;
+	}
+
+	/**
+	 * Grows the byte array so it can hold at least the given number of bytes.
+	 *
+	 * @param capacity the number of bytes needed
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > this.data.length) {
+			this.data = Arrays.copyOf(this.data, Math.max(capacity, this.data.length + (this.data.length >> 1)));
+		}
+	}
+}
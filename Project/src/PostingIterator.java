@@ -0,0 +1,93 @@
+/**
+ * Walks the postings of a single word in increasing document id order. A new
+ * iterator is positioned before its first posting, where its document is -1.
+ *
+ * @author nedimazar
+ */
+public interface PostingIterator {
+
+	/**
+	 * Returned once every posting has been visited.
+	 */
+	public static final int NO_MORE_DOCUMENTS = Integer.MAX_VALUE;
+
+	/**
+	 * Moves to the next posting.
+	 *
+	 * @return the id of the next document, or {@link #NO_MORE_DOCUMENTS}
+	 */
+	public int nextDocument();
+
+	/**
+	 * Returns the document id of the current posting.
+	 *
+	 * @return the current document id
+	 */
+	public int getDocument();
+
+	/**
+	 * Returns the number of times the word appears in the current document.
+	 *
+	 * @return the term frequency
+	 */
+	public int getFrequency();
+
+	/**
+	 * Returns the number of postings this iterator visits in total, or an upper
+	 * bound on it. Used to pick the cheapest list to drive an intersection.
+	 *
+	 * @return the document frequency
+	 */
+	public int getDocumentFrequency();
+
+	/**
+	 * Moves to the first posting at or after a document. The default walks one
+	 * posting at a time; lists that can jump ahead override it.
+	 *
+	 * @param target the document to move to, which must be after the current one
+	 * @return the id of the document moved to, or {@link #NO_MORE_DOCUMENTS}
+	 */
+	public default int advance(int target) {
+		int document;
+
+		do {
+			document = nextDocument();
+		} while (document < target);
+
+		return document;
+	}
+
+	/**
+	 * Returns an upper bound on what this word adds to the score of any single
+	 * document: the largest share of a document's words that it makes up. Used
+	 * to skip documents that cannot make a top-k list. The default means no
+	 * bound is known.
+	 *
+	 * @return the largest term frequency over document word count of any posting
+	 */
+	public default double getMaxScore() {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns what the current document adds to the numerator of its score. For
+	 * a single word that is its frequency; matches of several words that lie
+	 * far apart add less than their frequency.
+	 *
+	 * @return the weighted frequency in the current document
+	 */
+	public default double getWeight() {
+		return getFrequency();
+	}
+
+	/**
+	 * Returns the positions of the word in the current document. Only iterators
+	 * over the stored postings of a single word know them.
+	 *
+	 * @return the positions in increasing order
+	 * @throws UnsupportedOperationException if the iterator keeps no positions
+	 */
+	public default int[] getPositions() {
+		throw new UnsupportedOperationException("No positions are kept by " + getClass().getSimpleName());
+	}
+}
@@ -0,0 +1,592 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The postings of a single word: the sorted ids of every document the word
+ * appears in, each paired with the positions of the word in that document.
+ * Documents are almost always added in increasing id order, which makes
+ * adding an append to two parallel arrays.
+ *
+ * A list may keep only the number of times the word appears in each document
+ * instead of its positions, which is all that scoring needs. Its postings
+ * then take two ints each, and asking for positions is unsupported.
+ *
+ * @author nedimazar
+ */
+public class PostingList {
+
+	/**
+	 * The initial capacity of the arrays.
+	 */
+	private static final int INITIAL_CAPACITY = 2;
+
+	/**
+	 * The sorted document ids.
+	 */
+	private int[] documents;
+
+	/**
+	 * The positions of the word in each document, parallel to the ids, or null
+	 * if only frequencies are kept.
+	 */
+	private PositionList[] positions;
+
+	/**
+	 * The frequency of the word in each document, parallel to the ids, or null
+	 * if positions are kept.
+	 */
+	private int[] frequencies;
+
+	/**
+	 * The number of documents stored.
+	 */
+	private int size;
+
+	/**
+	 * Initializes an empty posting list that keeps positions.
+	 */
+	public PostingList() {
+		this(true);
+	}
+
+	/**
+	 * Initializes an empty posting list.
+	 *
+	 * @param positions true to keep positions, false to only keep frequencies
+	 */
+	public PostingList(boolean positions) {
+		this.documents = new int[INITIAL_CAPACITY];
+		this.positions = positions ? new PositionList[INITIAL_CAPACITY] : null;
+		this.frequencies = positions ? null : new int[INITIAL_CAPACITY];
+		this.size = 0;
+	}
+
+	/**
+	 * Checks whether the list keeps positions.
+	 *
+	 * @return true if positions are kept, false if only frequencies are
+	 */
+	public boolean hasPositions() {
+		return this.positions != null;
+	}
+
+	/**
+	 * Returns the number of documents in the list.
+	 *
+	 * @return the document frequency
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the document id at an index.
+	 *
+	 * @param index the index in the list
+	 * @return the document id
+	 */
+	public int getDocument(int index) {
+		return this.documents[index];
+	}
+
+	/**
+	 * Returns the positions at an index.
+	 *
+	 * @param index the index in the list
+	 * @return the positions of the word in that document
+	 * @throws UnsupportedOperationException if positions are not kept
+	 */
+	public PositionList getPositions(int index) {
+		checkPositions();
+		return this.positions[index];
+	}
+
+	/**
+	 * Returns the number of times the word appears in the document at an index.
+	 *
+	 * @param index the index in the list
+	 * @return the term frequency
+	 */
+	public int getFrequency(int index) {
+		return this.frequencies != null ? this.frequencies[index] : this.positions[index].size();
+	}
+
+	/**
+	 * Finds the index of a document in the list.
+	 *
+	 * @param document the document id
+	 * @return the index of the document if found, otherwise
+	 *         {@code -(insertion point) - 1}
+	 */
+	public int indexOf(int document) {
+		if (this.size > 0 && this.documents[this.size - 1] == document) {
+			return this.size - 1;
+		}
+		return Arrays.binarySearch(this.documents, 0, this.size, document);
+	}
+
+	/**
+	 * Returns the positions for a document.
+	 *
+	 * @param document the document id
+	 * @return the positions, or null if the word does not appear in the document
+	 * @throws UnsupportedOperationException if positions are not kept
+	 */
+	public PositionList get(int document) {
+		checkPositions();
+		int index = indexOf(document);
+		return index < 0 ? null : this.positions[index];
+	}
+
+	/**
+	 * Returns the positions for a document, adding an empty list for it first if
+	 * needed.
+	 *
+	 * @param document the document id
+	 * @return the positions of the word in the document
+	 * @throws UnsupportedOperationException if positions are not kept
+	 */
+	public PositionList getOrAdd(int document) {
+		checkPositions();
+
+		if (this.size == 0 || document > this.documents[this.size - 1]) {
+			PositionList added = new PositionList();
+			insert(this.size, document, added, 0);
+			return added;
+		}
+
+		int index = indexOf(document);
+
+		if (index >= 0) {
+			return this.positions[index];
+		}
+
+		PositionList added = new PositionList();
+		insert(-(index + 1), document, added, 0);
+		return added;
+	}
+
+	/**
+	 * Adds a position of the word in a document. A list that only keeps
+	 * frequencies can not tell whether the position was already added, so it
+	 * counts every position it is given.
+	 *
+	 * @param document the document id
+	 * @param position the position of the word in the document
+	 * @return true if the position was not already stored
+	 */
+	public boolean add(int document, int position) {
+		if (this.positions == null) {
+			count(document, 1);
+			return true;
+		}
+		return getOrAdd(document).add(position);
+	}
+
+	/**
+	 * Adds every posting of another list that uses the same document ids.
+	 *
+	 * @param other the list to add
+	 */
+	public void addAll(PostingList other) {
+		addAll(other, null);
+	}
+
+	/**
+	 * Adds every posting of another list, translating its document ids first.
+	 * Position lists for documents not already present are adopted rather than
+	 * copied. A list that only keeps frequencies adds up the frequencies of the
+	 * other list, whichever it keeps.
+	 *
+	 * Both lists are sorted, so they are merged in one pass: each document is
+	 * found by galloping on from where the previous one was, which costs next to
+	 * nothing when the other list only holds newer documents. The search starts
+	 * over only if the translated ids ever go down.
+	 *
+	 * @param other the list to add
+	 * @param remap maps document ids of the other list to ids of this one, or
+	 *              to -1 to leave a document out; null if the ids are the same
+	 * @throws UnsupportedOperationException if this list keeps positions and
+	 *                                       the other does not
+	 */
+	public void addAll(PostingList other, int[] remap) {
+		if (this.positions != null) {
+			other.checkPositions();
+		}
+
+		int index = 0;
+		int previous = -1;
+
+		for (int i = 0; i < other.size; i++) {
+			int document = remap == null ? other.documents[i] : remap[other.documents[i]];
+
+			if (document < 0) {
+				continue;
+			}
+
+			if (document < previous) {
+				index = 0;
+			}
+			previous = document;
+			index = gallop(this.documents, index, this.size, document);
+
+			if (index < this.size && this.documents[index] == document) {
+				if (this.positions == null) {
+					this.frequencies[index] += other.getFrequency(i);
+				} else {
+					this.positions[index].addAll(other.positions[i]);
+				}
+			} else if (this.positions == null) {
+				insert(index, document, null, other.getFrequency(i));
+			} else {
+				other.positions[i].compact();
+				insert(index, document, other.positions[i], 0);
+			}
+		}
+	}
+
+	/**
+	 * Adds every position of the word in a document at once. The list is
+	 * adopted rather than copied if the document is not already present.
+	 *
+	 * @param document  the document id
+	 * @param positions the positions of the word in the document
+	 */
+	public void add(int document, PositionList positions) {
+		if (this.positions == null) {
+			count(document, positions.size());
+			return;
+		}
+
+		int index = indexOf(document);
+
+		if (index >= 0) {
+			this.positions[index].addAll(positions);
+		} else {
+			positions.compact();
+			insert(-(index + 1), document, positions, 0);
+		}
+	}
+
+	/**
+	 * Adds to the frequency of the word in a document, in a list that only keeps
+	 * frequencies.
+	 *
+	 * @param document  the document id
+	 * @param frequency the number of times to add
+	 */
+	public void count(int document, int frequency) {
+		int index = indexOf(document);
+
+		if (index >= 0) {
+			this.frequencies[index] += frequency;
+		} else {
+			insert(-(index + 1), document, null, frequency);
+		}
+	}
+
+	/**
+	 * Removes the postings of several documents in one pass.
+	 *
+	 * @param deleted the ids of the documents to remove
+	 * @return true if any posting was removed
+	 */
+	public boolean removeAll(BitSet deleted) {
+		int kept = 0;
+
+		for (int i = 0; i < this.size; i++) {
+			if (!deleted.get(this.documents[i])) {
+				this.documents[kept] = this.documents[i];
+				if (this.positions == null) {
+					this.frequencies[kept++] = this.frequencies[i];
+				} else {
+					this.positions[kept++] = this.positions[i];
+				}
+			}
+		}
+
+		if (kept == this.size) {
+			return false;
+		}
+
+		if (this.positions != null) {
+			Arrays.fill(this.positions, kept, this.size, null);
+		}
+		this.size = kept;
+		return true;
+	}
+
+	/**
+	 * Returns an iterator over the postings. The list must not be modified while
+	 * the iterator is in use.
+	 *
+	 * @return an iterator positioned before the first posting
+	 */
+	public PostingIterator iterator() {
+		return new PostingIterator() {
+			/** The index of the current posting. */
+			private int index = -1;
+
+			@Override
+			public int nextDocument() {
+				this.index++;
+				return getDocument();
+			}
+
+			@Override
+			public int advance(int target) {
+				this.index = gallop(documents, this.index + 1, size, target);
+				return getDocument();
+			}
+
+			@Override
+			public int getDocument() {
+				if (this.index < 0) {
+					return -1;
+				}
+				return this.index < size ? documents[this.index] : NO_MORE_DOCUMENTS;
+			}
+
+			@Override
+			public int getFrequency() {
+				return frequencies != null ? frequencies[this.index] : positions[this.index].size();
+			}
+
+			@Override
+			public int getDocumentFrequency() {
+				return size;
+			}
+
+			@Override
+			public int[] getPositions() {
+				return PostingList.this.getPositions(this.index).toIntArray();
+			}
+		};
+	}
+
+	/**
+	 * Finds the first document at or after a target in a sorted range, by
+	 * doubling a step from the start of the range until it passes the target and
+	 * then binary searching the last step. Costs time logarithmic in how far the
+	 * answer is from the start, so stepping through a long list towards the
+	 * documents of a short one stays cheap.
+	 *
+	 * @param documents the sorted document ids
+	 * @param from      the first index to consider
+	 * @param to        the index just past the range
+	 * @param target    the document to find
+	 * @return the index of the first document at or after the target, or
+	 *         {@code to} if there is none
+	 */
+	public static int gallop(int[] documents, int from, int to, int target) {
+		int low = from;
+		int step = 1;
+
+		while (low < to && documents[low] < target) {
+			int high = low + step;
+
+			if (high >= to || documents[high] >= target) {
+				high = Math.min(high, to);
+				low++;
+
+				while (low < high) {
+					int middle = (low + high) >>> 1;
+
+					if (documents[middle] < target) {
+						low = middle + 1;
+					} else {
+						high = middle;
+					}
+				}
+				return low;
+			}
+
+			low = high;
+			step <<= 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns a list that can be read step by step without seeing changes made
+	 * to this one in the meantime. This list is never changed by anyone else,
+	 * so it returns itself.
+	 *
+	 * @return a list with the same postings
+	 */
+	public PostingList snapshot() {
+		return this;
+	}
+
+	/**
+	 * Returns the postings of the documents with ids from {@code from} up to
+	 * {@code to}. The position lists are shared rather than copied, so the
+	 * range is only meant to be read before this list changes again.
+	 *
+	 * @param from the first document id in the range
+	 * @param to   the document id just past the range
+	 * @return a new list with the postings in the range
+	 */
+	public PostingList range(int from, int to) {
+		int start = gallop(this.documents, 0, this.size, from);
+		int end = gallop(this.documents, start, this.size, to);
+
+		PostingList range = new PostingList(this.positions != null);
+		range.documents = Arrays.copyOfRange(this.documents, start, Math.max(end, start + INITIAL_CAPACITY));
+		range.size = end - start;
+
+		if (this.positions == null) {
+			range.frequencies = Arrays.copyOfRange(this.frequencies, start, start + range.documents.length);
+		} else {
+			range.positions = Arrays.copyOfRange(this.positions, start, start + range.documents.length);
+		}
+		return range;
+	}
+
+	/**
+	 * Returns a copy of the list that shares nothing with it.
+	 *
+	 * @return a new list with the same postings
+	 */
+	public PostingList copy() {
+		PostingList copy = new PostingList(this.positions != null);
+		copy.documents = Arrays.copyOf(this.documents, Math.max(this.size, INITIAL_CAPACITY));
+		copy.size = this.size;
+
+		if (this.positions == null) {
+			copy.frequencies = Arrays.copyOf(this.frequencies, copy.documents.length);
+			return copy;
+		}
+
+		copy.positions = new PositionList[copy.documents.length];
+		for (int i = 0; i < this.size; i++) {
+			copy.positions[i] = this.positions[i].copy();
+		}
+		return copy;
+	}
+
+	/**
+	 * Shrinks the arrays to the number of documents stored.
+	 */
+	public void compact() {
+		if (this.documents.length > this.size) {
+			this.documents = Arrays.copyOf(this.documents, this.size);
+			if (this.positions == null) {
+				this.frequencies = Arrays.copyOf(this.frequencies, this.size);
+			} else {
+				this.positions = Arrays.copyOf(this.positions, this.size);
+			}
+		}
+	}
+
+	/**
+	 * Writes the list as its size followed by each document id, as the gap from
+	 * the previous id, and its positions, or only its frequency if positions are
+	 * not kept.
+	 *
+	 * @param output where to write
+	 * @throws IOException if unable to write
+	 */
+	public void write(DataOutput output) throws IOException {
+		Varint.write(this.size, output);
+
+		int previous = 0;
+		for (int i = 0; i < this.size; i++) {
+			Varint.write(this.documents[i] - previous, output);
+			if (this.positions == null) {
+				Varint.write(this.frequencies[i], output);
+			} else {
+				this.positions[i].write(output);
+			}
+			previous = this.documents[i];
+		}
+	}
+
+	/**
+	 * Reads a list written by {@link #write(DataOutput)}.
+	 *
+	 * @param input     where to read from
+	 * @param remap     maps the document ids read to the ids to store
+	 * @param positions whether the list was written with its positions
+	 * @return the list read, which keeps positions only if they were written
+	 * @throws IOException if unable to read
+	 */
+	public static PostingList read(DataInput input, int[] remap, boolean positions) throws IOException {
+		PostingList postings = new PostingList(positions);
+		int size = Varint.read(input);
+		int document = 0;
+
+		postings.documents = new int[Math.max(size, INITIAL_CAPACITY)];
+		if (positions) {
+			postings.positions = new PositionList[postings.documents.length];
+		} else {
+			postings.frequencies = new int[postings.documents.length];
+		}
+
+		for (int i = 0; i < size; i++) {
+			document += Varint.read(input);
+			int index = postings.indexOf(remap[document]);
+
+			if (positions) {
+				postings.insert(-(index + 1), remap[document], PositionList.read(input), 0);
+			} else {
+				postings.insert(-(index + 1), remap[document], null, Varint.read(input));
+			}
+		}
+
+		return postings;
+	}
+
+	/**
+	 * Makes sure the list keeps positions.
+	 *
+	 * @throws UnsupportedOperationException if only frequencies are kept
+	 */
+	private void checkPositions() {
+		if (this.positions == null) {
+			throw new UnsupportedOperationException("Positions are not kept by this list.");
+		}
+	}
+
+	/**
+	 * Inserts a posting at an index, shifting later postings over.
+	 *
+	 * @param index     where to insert
+	 * @param document  the document id
+	 * @param positions the positions in that document, ignored if only
+	 *                  frequencies are kept
+	 * @param frequency the frequency in that document, ignored if positions are
+	 *                  kept
+	 */
+	private void insert(int index, int document, PositionList positions, int frequency) {
+		if (this.size == this.documents.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, this.size + (this.size >> 1));
+			this.documents = Arrays.copyOf(this.documents, capacity);
+			if (this.positions == null) {
+				this.frequencies = Arrays.copyOf(this.frequencies, capacity);
+			} else {
+				this.positions = Arrays.copyOf(this.positions, capacity);
+			}
+		}
+
+		if (index < this.size) {
+			System.arraycopy(this.documents, index, this.documents, index + 1, this.size - index);
+			if (this.positions == null) {
+				System.arraycopy(this.frequencies, index, this.frequencies, index + 1, this.size - index);
+			} else {
+				System.arraycopy(this.positions, index, this.positions, index + 1, this.size - index);
+			}
+		}
+
+		this.documents[index] = document;
+		if (this.positions == null) {
+			this.frequencies[index] = frequency;
+		} else {
+			this.positions[index] = positions;
+		}
+		this.size++;
+	}
+}
@@ -0,0 +1,295 @@
+import java.util.Collection;
+
+/**
+ * Walks the postings of several words in parallel, one document at a time.
+ * The iterators are kept in a binary heap ordered by their current document,
+ * so each step visits the next matching document in increasing id order and
+ * adds up the frequencies of every iterator positioned on it. Nothing is
+ * allocated per document.
+ *
+ * A heap step costs a logarithmic number of comparisons per posting, which
+ * adds up for broad partial queries matching hundreds of words. Past
+ * {@link #HEAP_LIMIT} iterators the postings are instead added term at a time
+ * into a dense array of counts indexed by document, which is then read back in
+ * document order. Both ways produce the same documents and counts.
+ *
+ * An iterator appearing more than once is counted once for each time it was
+ * added, just like searching the same word twice.
+ *
+ * A weighted merger also adds up the weights of the iterators, for scoring
+ * models that weigh every posting. Otherwise the weight of a document is its
+ * summed frequency.
+ *
+ * The merger is itself a {@link PostingIterator} over the union of the words,
+ * which is how a partial query takes part in an intersection.
+ *
+ * @author nedimazar
+ */
+public class PostingMerger implements PostingIterator {
+
+	/**
+	 * The most iterators merged through the heap.
+	 */
+	public static final int HEAP_LIMIT = 16;
+
+	/**
+	 * The iterators that still have postings, as a heap on their current
+	 * document.
+	 */
+	private final PostingIterator[] heap;
+
+	/**
+	 * The summed frequency of every document, used instead of the heap when
+	 * there are too many iterators. Null when the heap is in use.
+	 */
+	private final int[] counts;
+
+	/**
+	 * The summed weight of every document, used along with the counts when
+	 * weighted. Null otherwise.
+	 */
+	private final double[] weights;
+
+	/**
+	 * The last document with a count, when the counts are in use.
+	 */
+	private int last;
+
+	/**
+	 * The number of iterators in the heap.
+	 */
+	private int size;
+
+	/**
+	 * The summed document frequency of every iterator.
+	 */
+	private final int documentFrequency;
+
+	/**
+	 * The current document.
+	 */
+	private int document;
+
+	/**
+	 * The summed frequency of every word in the current document.
+	 */
+	private int count;
+
+	/**
+	 * Whether the weights of the iterators are added up.
+	 */
+	private final boolean weighted;
+
+	/**
+	 * The summed weight of every word in the current document, when weighted.
+	 */
+	private double weight;
+
+	/**
+	 * Initializes a merger positioned before the first matching document.
+	 *
+	 * @param postings      the iterators to merge, none of which have been
+	 *                      advanced
+	 * @param documentCount the number of document ids in use, which bounds every
+	 *                      id found in a posting
+	 */
+	public PostingMerger(Collection<PostingIterator> postings, int documentCount) {
+		this(postings, documentCount, false);
+	}
+
+	/**
+	 * Initializes a merger positioned before the first matching document.
+	 *
+	 * @param postings      the iterators to merge, none of which have been
+	 *                      advanced
+	 * @param documentCount the number of document ids in use, which bounds every
+	 *                      id found in a posting
+	 * @param weighted      true to add up the weights of the iterators as well
+	 */
+	public PostingMerger(Collection<PostingIterator> postings, int documentCount, boolean weighted) {
+		this.document = -1;
+		this.count = 0;
+		this.size = 0;
+		this.weighted = weighted;
+		this.weight = 0;
+
+		long sum = 0;
+		for (PostingIterator iterator : postings) {
+			sum += iterator.getDocumentFrequency();
+		}
+		this.documentFrequency = (int) Math.min(sum, documentCount);
+
+		if (postings.size() > HEAP_LIMIT) {
+			this.heap = null;
+			this.counts = new int[documentCount];
+			this.weights = weighted ? new double[documentCount] : null;
+			this.last = -1;
+
+			for (PostingIterator iterator : postings) {
+				int document;
+
+				while ((document = iterator.nextDocument()) != PostingIterator.NO_MORE_DOCUMENTS) {
+					this.counts[document] += iterator.getFrequency();
+					if (weighted) {
+						this.weights[document] += iterator.getWeight();
+					}
+
+					if (document > this.last) {
+						this.last = document;
+					}
+				}
+			}
+			return;
+		}
+
+		this.heap = new PostingIterator[postings.size()];
+		this.counts = null;
+		this.weights = null;
+
+		for (PostingIterator iterator : postings) {
+			if (iterator.nextDocument() != PostingIterator.NO_MORE_DOCUMENTS) {
+				this.heap[this.size++] = iterator;
+			}
+		}
+
+		for (int i = (this.size >> 1) - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	@Override
+	public int nextDocument() {
+		if (this.counts != null) {
+			while (this.document < this.last) {
+				this.document++;
+
+				if (this.counts[this.document] != 0) {
+					this.count = this.counts[this.document];
+					if (this.weighted) {
+						this.weight = this.weights[this.document];
+					}
+					return this.document;
+				}
+			}
+
+			this.document = PostingIterator.NO_MORE_DOCUMENTS;
+			this.count = 0;
+			return this.document;
+		}
+
+		if (this.size == 0) {
+			this.document = PostingIterator.NO_MORE_DOCUMENTS;
+			this.count = 0;
+			return this.document;
+		}
+
+		this.document = this.heap[0].getDocument();
+		this.count = 0;
+		this.weight = 0;
+
+		while (this.size > 0 && this.heap[0].getDocument() == this.document) {
+			this.count += this.heap[0].getFrequency();
+			if (this.weighted) {
+				this.weight += this.heap[0].getWeight();
+			}
+
+			if (this.heap[0].nextDocument() == PostingIterator.NO_MORE_DOCUMENTS) {
+				this.heap[0] = this.heap[--this.size];
+				this.heap[this.size] = null;
+			}
+			siftDown(0);
+		}
+
+		return this.document;
+	}
+
+	@Override
+	public int advance(int target) {
+		if (this.counts != null) {
+			this.document = Math.min(target, this.last + 1) - 1;
+			return nextDocument();
+		}
+
+		int kept = 0;
+		for (int i = 0; i < this.size; i++) {
+			PostingIterator iterator = this.heap[i];
+
+			if (iterator.getDocument() >= target || iterator.advance(target) != NO_MORE_DOCUMENTS) {
+				this.heap[kept++] = iterator;
+			}
+		}
+
+		for (int i = kept; i < this.size; i++) {
+			this.heap[i] = null;
+		}
+		this.size = kept;
+
+		for (int i = (this.size >> 1) - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+		return nextDocument();
+	}
+
+	@Override
+	public int getDocument() {
+		return this.document;
+	}
+
+	/**
+	 * Returns the summed frequency of every word in the current document.
+	 *
+	 * @return the number of matches in the current document
+	 */
+	@Override
+	public int getFrequency() {
+		return this.count;
+	}
+
+	/**
+	 * Returns the summed weight of every word in the current document, or the
+	 * summed frequency unless weighted.
+	 */
+	@Override
+	public double getWeight() {
+		return this.weighted ? this.weight : this.count;
+	}
+
+	@Override
+	public int getDocumentFrequency() {
+		return this.documentFrequency;
+	}
+
+	/**
+	 * Moves an iterator down the heap until neither child is on an earlier
+	 * document.
+	 *
+	 * @param index the index of the iterator to move
+	 */
+	private void siftDown(int index) {
+		if (index >= this.size) {
+			return;
+		}
+
+		PostingIterator moving = this.heap[index];
+		int document = moving.getDocument();
+		int half = this.size >> 1;
+
+		while (index < half) {
+			int child = (index << 1) + 1;
+			int right = child + 1;
+
+			if (right < this.size && this.heap[right].getDocument() < this.heap[child].getDocument()) {
+				child = right;
+			}
+
+			if (document <= this.heap[child].getDocument()) {
+				break;
+			}
+
+			this.heap[index] = this.heap[child];
+			index = child;
+		}
+
+		this.heap[index] = moving;
+	}
+}
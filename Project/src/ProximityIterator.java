@@ -0,0 +1,229 @@
+import java.util.List;
+
+/**
+ * Walks the documents where several words appear close together: one right
+ * after the other for a phrase, or within a window of a few words in any
+ * order for a proximity group.
+ *
+ * Documents holding every word are found first by a
+ * {@link ConjunctionIterator}, so positions are only decoded for those. The
+ * sorted positions of the words are then intersected by galloping, so a rare
+ * word in a phrase skips most positions of a common one.
+ *
+ * The frequency of a document counts every word of every match. Its weight
+ * gives each match the number of words over the width of the window it spans,
+ * so an exact phrase weighs as much as its frequency and words further apart
+ * weigh less.
+ *
+ * @author nedimazar
+ */
+public class ProximityIterator implements PostingIterator {
+
+	/**
+	 * The iterators over the words, in the order written.
+	 */
+	private final PostingIterator[] terms;
+
+	/**
+	 * The iterator over the documents holding every word.
+	 */
+	private final ConjunctionIterator documents;
+
+	/**
+	 * The most other words allowed between the words of a match.
+	 */
+	private final int slop;
+
+	/**
+	 * Whether the words must appear in order, one right after the other.
+	 */
+	private final boolean ordered;
+
+	/**
+	 * The positions of each word in the current document.
+	 */
+	private final int[][] positions;
+
+	/**
+	 * How far into the positions of each word the intersection got.
+	 */
+	private final int[] cursors;
+
+	/**
+	 * The number of words matched in the current document.
+	 */
+	private int frequency;
+
+	/**
+	 * The weighted number of words matched in the current document.
+	 */
+	private double weight;
+
+	/**
+	 * Initializes an iterator over the documents where words appear close
+	 * together.
+	 *
+	 * @param terms   the iterators over each word in the order written, none of
+	 *                which have been advanced; must not be empty, and each must
+	 *                know its positions
+	 * @param slop    the most other words allowed between the words of a match,
+	 *                ignored when ordered
+	 * @param ordered true to match the words as a phrase
+	 */
+	public ProximityIterator(List<PostingIterator> terms, int slop, boolean ordered) {
+		this.terms = terms.toArray(new PostingIterator[0]);
+		this.documents = new ConjunctionIterator(terms);
+		this.slop = slop;
+		this.ordered = ordered;
+		this.positions = new int[this.terms.length][];
+		this.cursors = new int[this.terms.length];
+	}
+
+	@Override
+	public int nextDocument() {
+		return match(this.documents.nextDocument());
+	}
+
+	@Override
+	public int advance(int target) {
+		return match(this.documents.advance(target));
+	}
+
+	@Override
+	public int getDocument() {
+		return this.documents.getDocument();
+	}
+
+	@Override
+	public int getFrequency() {
+		return this.frequency;
+	}
+
+	@Override
+	public double getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * Returns the document frequency of the rarest word, which bounds the number
+	 * of documents matched.
+	 */
+	@Override
+	public int getDocumentFrequency() {
+		return this.documents.getDocumentFrequency();
+	}
+
+	/**
+	 * Moves on from a document holding every word until the words also appear
+	 * close enough together.
+	 *
+	 * @param document the first document holding every word to check
+	 * @return the first matching document, or {@link #NO_MORE_DOCUMENTS}
+	 */
+	private int match(int document) {
+		while (document != NO_MORE_DOCUMENTS) {
+			for (int i = 0; i < this.terms.length; i++) {
+				this.positions[i] = this.terms[i].getPositions();
+				this.cursors[i] = 0;
+			}
+
+			if (this.ordered) {
+				matchPhrase();
+			} else {
+				matchWindows();
+			}
+
+			if (this.frequency > 0) {
+				return document;
+			}
+			document = this.documents.nextDocument();
+		}
+		return document;
+	}
+
+	/**
+	 * Counts the places where the words appear one right after the other.
+	 * Word i of a match must be at the start of the match plus i, so the
+	 * positions of each word are shifted back by i and intersected: each list
+	 * gallops to the latest start any list has reached, until they all agree.
+	 */
+	private void matchPhrase() {
+		int matches = 0;
+		int start = Integer.MIN_VALUE;
+
+		search: while (true) {
+			boolean aligned = true;
+
+			for (int i = 0; i < this.terms.length; i++) {
+				int[] list = this.positions[i];
+				this.cursors[i] = PostingList.gallop(list, this.cursors[i], list.length, start + i);
+
+				if (this.cursors[i] == list.length) {
+					break search;
+				}
+
+				if (list[this.cursors[i]] - i > start) {
+					start = list[this.cursors[i]] - i;
+					aligned = i == 0;
+					if (!aligned) {
+						break;
+					}
+				}
+			}
+
+			if (aligned) {
+				matches++;
+				start++;
+			}
+		}
+
+		this.frequency = matches * this.terms.length;
+		this.weight = this.frequency;
+	}
+
+	/**
+	 * Counts the windows holding one position of every word with at most the
+	 * slop of other words in between. The window always spans the current
+	 * position of each word; it moves on by dropping its first position, which
+	 * gallops past every position too far before the last one to ever fit.
+	 */
+	private void matchWindows() {
+		int words = this.terms.length;
+		long limit = (long) this.slop + words - 1;
+		int matches = 0;
+		double weight = 0;
+
+		while (true) {
+			int first = 0;
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+
+			for (int i = 0; i < words; i++) {
+				int position = this.positions[i][this.cursors[i]];
+
+				if (position < min) {
+					min = position;
+					first = i;
+				}
+				max = Math.max(max, position);
+			}
+
+			int[] list = this.positions[first];
+
+			if (max - min <= limit) {
+				matches++;
+				weight += (double) words * words / (max - min + 1);
+				this.cursors[first]++;
+			} else {
+				this.cursors[first] = PostingList.gallop(list, this.cursors[first] + 1, list.length, (int) (max - limit));
+			}
+
+			if (this.cursors[first] == list.length) {
+				break;
+			}
+		}
+
+		this.frequency = matches * words;
+		this.weight = weight;
+	}
+}
@@ -0,0 +1,287 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * A search query parsed into single words, quoted phrases and proximity
+ * groups.
+ *
+ * Text between double quotes is a phrase: its words must appear one right
+ * after the other, in order. Only a closed pair of quotes makes a phrase; a
+ * quote left open is ordinary text, like any other punctuation.
+ * Words joined by {@code NEAR/k}, as in {@code apple NEAR/3 pie}, form a
+ * proximity group: they must all appear, in any order, with at most k other
+ * words in between. A chain such as {@code a NEAR/2 b NEAR/5 c} is one group
+ * using the largest k. The operator must be written in capitals; anything
+ * else is cleaned and stemmed like any other word.
+ *
+ * Phrases and groups are clauses that a document must match, and their words
+ * are always matched exactly. Single words are searched as before.
+ *
+ * @author nedimazar
+ */
+public class Query {
+
+	/**
+	 * Matches the proximity operator.
+	 */
+	public static final Pattern NEAR = Pattern.compile("NEAR/(\\d{1,9})");
+
+	/**
+	 * A phrase or proximity group, which a document matches only if its words
+	 * appear close enough together.
+	 *
+	 * @author nedimazar
+	 */
+	public static class Clause {
+
+		/**
+		 * The stemmed words, in the order written.
+		 */
+		private final List<String> terms;
+
+		/**
+		 * The most other words allowed between the words of a match.
+		 */
+		private final int slop;
+
+		/**
+		 * Whether the words must appear in order, as in a phrase.
+		 */
+		private final boolean ordered;
+
+		/**
+		 * Initializes a clause.
+		 *
+		 * @param terms   the stemmed words, in the order written
+		 * @param slop    the most other words allowed between the words of a
+		 *                match
+		 * @param ordered whether the words must appear in order
+		 */
+		public Clause(List<String> terms, int slop, boolean ordered) {
+			this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+			this.slop = slop;
+			this.ordered = ordered;
+		}
+
+		/**
+		 * Returns the stemmed words.
+		 *
+		 * @return the words, in the order written
+		 */
+		public List<String> getTerms() {
+			return this.terms;
+		}
+
+		/**
+		 * Returns the most other words allowed between the words of a match.
+		 *
+		 * @return the slop, which is 0 for a phrase
+		 */
+		public int getSlop() {
+			return this.slop;
+		}
+
+		/**
+		 * Checks whether the words must appear in order.
+		 *
+		 * @return true for a phrase
+		 */
+		public boolean isOrdered() {
+			return this.ordered;
+		}
+
+		@Override
+		public String toString() {
+			if (this.ordered) {
+				return "\"" + String.join(" ", this.terms) + "\"";
+			}
+			return String.join(" NEAR/" + this.slop + " ", this.terms);
+		}
+	}
+
+	/**
+	 * The single words.
+	 */
+	private final TreeSet<String> words;
+
+	/**
+	 * The phrases and proximity groups, in the order written.
+	 */
+	private final ArrayList<Clause> clauses;
+
+	/**
+	 * Initializes an empty query.
+	 */
+	private Query() {
+		this.words = new TreeSet<>();
+		this.clauses = new ArrayList<>();
+	}
+
+	/**
+	 * Parses a line into a query, stemming with the default stemmer.
+	 *
+	 * @param line the line to parse
+	 * @return the parsed query
+	 *
+	 * @see CachingStemmer#ENGLISH
+	 */
+	public static Query parse(String line) {
+		return parse(line, CachingStemmer.ENGLISH);
+	}
+
+	/**
+	 * Parses a line into a query.
+	 *
+	 * @param line    the line to parse
+	 * @param stemmer the stemmer to use
+	 * @return the parsed query
+	 */
+	public static Query parse(String line, Stemmer stemmer) {
+		Query query = new Query();
+		TextTokenizer tokenizer = new TextTokenizer();
+		String[] parts = line.split("\"", -1);
+		int last = parts.length - 1;
+
+		// the last quote was left open, so the text after it is ordinary text
+		if (last % 2 == 1) {
+			last--;
+			parts[last] = parts[last] + "\"" + parts[last + 1];
+		}
+
+		// parts at odd indexes were between quotes
+		for (int i = 0; i <= last; i++) {
+			if (i % 2 == 0) {
+				query.addWords(parts[i], stemmer, tokenizer);
+				continue;
+			}
+
+			ArrayList<String> phrase = new ArrayList<>();
+			tokenizer.reset(parts[i]);
+			while (tokenizer.next()) {
+				phrase.add(stemmer.stem(tokenizer.getToken()).toString());
+			}
+
+			if (!phrase.isEmpty()) {
+				query.clauses.add(new Clause(phrase, 0, true));
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Adds the single words and proximity groups of text outside quotes.
+	 *
+	 * @param text      the text to parse
+	 * @param stemmer   the stemmer to use
+	 * @param tokenizer the tokenizer to clean each word with
+	 */
+	private void addWords(String text, Stemmer stemmer, TextTokenizer tokenizer) {
+		ArrayList<String> chain = new ArrayList<>();
+		boolean joined = false;
+		int slop = 0;
+
+		for (String part : TextParser.split(text)) {
+			Matcher matcher = NEAR.matcher(part);
+
+			if (matcher.matches()) {
+				if (!chain.isEmpty()) {
+					joined = true;
+					slop = Math.max(slop, Integer.parseInt(matcher.group(1)));
+				}
+				continue;
+			}
+
+			tokenizer.reset(part);
+			if (!tokenizer.next()) {
+				continue;
+			}
+
+			if (!joined) {
+				addChain(chain, slop);
+				chain.clear();
+				slop = 0;
+			}
+
+			chain.add(stemmer.stem(tokenizer.getToken()).toString());
+			joined = false;
+		}
+
+		addChain(chain, slop);
+	}
+
+	/**
+	 * Adds words joined by the proximity operator as a group, or a lone word as
+	 * a single word.
+	 *
+	 * @param chain the words
+	 * @param slop  the largest k of the operators joining them
+	 */
+	private void addChain(List<String> chain, int slop) {
+		ArrayList<String> distinct = new ArrayList<>(new LinkedHashSet<>(chain));
+
+		if (distinct.size() == 1) {
+			this.words.add(distinct.get(0));
+		} else if (distinct.size() > 1) {
+			this.clauses.add(new Clause(distinct, slop, false));
+		}
+	}
+
+	/**
+	 * Returns the single words.
+	 *
+	 * @return the sorted, distinct stemmed words
+	 */
+	public SortedSet<String> getWords() {
+		return Collections.unmodifiableSortedSet(this.words);
+	}
+
+	/**
+	 * Returns the phrases and proximity groups.
+	 *
+	 * @return the clauses, in the order written
+	 */
+	public List<Clause> getClauses() {
+		return Collections.unmodifiableList(this.clauses);
+	}
+
+	/**
+	 * Checks whether the query has any phrase or proximity group.
+	 *
+	 * @return true if some clause needs positions to match
+	 */
+	public boolean hasClauses() {
+		return !this.clauses.isEmpty();
+	}
+
+	/**
+	 * Checks whether the query has nothing to search for.
+	 *
+	 * @return true if there are no words and no clauses
+	 */
+	public boolean isEmpty() {
+		return this.words.isEmpty() && this.clauses.isEmpty();
+	}
+
+	/**
+	 * Returns the query written out again: the single words sorted and then
+	 * each clause. A query of single words reads exactly like the words joined
+	 * by spaces.
+	 */
+	@Override
+	public String toString() {
+		ArrayList<String> parts = new ArrayList<>(this.words);
+
+		for (Clause clause : this.clauses) {
+			parts.add(clause.toString());
+		}
+		return String.join(" ", parts);
+	}
+}
@@ -6,7 +6,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * @author nedimazar
@@ -96,26 +95,27 @@ public class QueryBuilder implements QueryBuilderInterface {
 
 
 	/**
-	 * Parses a Query line made up of words.
+	 * Parses a Query line made up of words, quoted phrases and NEAR/k groups.
+	 * See {@link Query}.
 	 *
 	 * @param line The line we are parsing.
 	 * @param exactSearch Wether we are doing exact search or not.
 	 */
 	@Override
 	public void parseQueryLine(String line, boolean exactSearch) {
-		TreeSet<String> queries = TextFileStemmer.uniqueStems(line);
+		Query query = Query.parse(line);
 
-		if (queries.size() == 0) {
+		if (query.isEmpty()) {
 			return;
 		}
 
-		String joined = String.join(" ", queries);
+		String joined = query.toString();
 
 		if (querySet.containsKey(joined)) {
 			return;
 		}
 
-		ArrayList<InvertedIndex.Result> local = invertedIndex.search(queries, exactSearch);
+		ArrayList<InvertedIndex.Result> local = invertedIndex.search(query, exactSearch);
 		this.querySet.put(joined, local);
 	}
 
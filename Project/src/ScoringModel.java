@@ -0,0 +1,84 @@
+/**
+ * Decides how well a document matches a search. The score of a document is
+ * built in two steps: each posting of a searched word adds a weight, and the
+ * weights of a document are then turned into its score using the norm of the
+ * document, a number that depends only on its length.
+ *
+ * Norms are meant to be computed once per document, when an index is frozen
+ * or mapped, so that scoring a posting takes a few multiply-adds. Searches
+ * with a limit skip documents using upper bounds on what each word can add,
+ * so {@link #score(double, double)} must be linear in the weight, and no
+ * weight may be negative.
+ *
+ * @author nedimazar
+ */
+public interface ScoringModel {
+
+	/**
+	 * The default model: the number of matches over the number of words in the
+	 * document.
+	 */
+	public static final ScoringModel MATCH_RATIO = new MatchRatioModel();
+
+	/**
+	 * Returns how much every match of a word counts, computed once per word
+	 * searched.
+	 *
+	 * @param documentFrequency the number of documents the word appears in, or
+	 *                          an upper bound on it
+	 * @param documentCount     the number of documents stored
+	 * @return the weight of the word
+	 */
+	public double getTermWeight(int documentFrequency, int documentCount);
+
+	/**
+	 * Returns the norm of a document.
+	 *
+	 * @param wordCount        the number of words in the document
+	 * @param averageWordCount the average number of words in a document
+	 * @return the norm of the document
+	 */
+	public double getNorm(int wordCount, double averageWordCount);
+
+	/**
+	 * Checks whether postings have to be weighed one at a time. A model whose
+	 * postings add just their frequency can skip {@link #weigh(double, double, double)}.
+	 *
+	 * @return true if every posting needs weighing
+	 */
+	public boolean weighsPostings();
+
+	/**
+	 * Returns what a posting adds to the weight of its document.
+	 *
+	 * @param frequency  the number of matches in the document, or a weighted
+	 *                   count for a phrase or proximity group
+	 * @param termWeight the weight of the word
+	 * @param norm       the norm of the document
+	 * @return the weight of the posting
+	 */
+	public double weigh(double frequency, double termWeight, double norm);
+
+	/**
+	 * Turns the summed weight of a document into its score.
+	 *
+	 * @param weight the summed weight of every matching posting
+	 * @param norm   the norm of the document
+	 * @return the score of the document
+	 */
+	public double score(double weight, double norm);
+
+	/**
+	 * Returns an upper bound on what a weighed posting of a word adds to the
+	 * score of any document, given the largest share of a document's words
+	 * that the word makes up.
+	 *
+	 * @param termWeight       the weight of the word
+	 * @param maxRatio         the largest term frequency over document word
+	 *                         count of any posting of the word, which may be
+	 *                         infinite if unknown
+	 * @param averageWordCount the average number of words in a document
+	 * @return the upper bound, or infinity if none is known
+	 */
+	public double getMaxScore(double termWeight, double maxRatio, double averageWordCount);
+}
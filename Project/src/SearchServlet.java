@@ -2,7 +2,6 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -33,6 +32,9 @@ public class SearchServlet extends HttpServlet {
 	 */
 	public static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
 
+	/** The most results shown for one search. */
+	private static final int RESULTS_PER_PAGE = 50;
+
 	/** The title to use for this webpage. */
 	private static final String TITLE = "NedSearch";
 
@@ -40,9 +42,9 @@ public class SearchServlet extends HttpServlet {
 	private ConcurrentLinkedQueue<String> outputQueue;
 
 	/**
-	 * The crawler of the web.
+	 * The index that searches are run against.
 	 */
-	private WebCrawler webCrawler;
+	private final InvertedIndex index;
 
 
 	/**
@@ -59,25 +61,12 @@ public class SearchServlet extends HttpServlet {
 	 * initializes the LinkedQueue for the output messages.
 	 *
 	 * @param queryBuilder The query builder
-	 * @param index
+	 * @param index an index that is safe to search from several threads
 	 *
 	 */
-	public SearchServlet(QueryBuilderInterface queryBuilder, ThreadSafeInvertedIndex index) {
+	public SearchServlet(QueryBuilderInterface queryBuilder, InvertedIndex index) {
 		super();
-		outputQueue = new ConcurrentLinkedQueue<>();
-	}
-
-	/**
-	 * Constructor of the search servlet.
-	 *
-	 * @param queryBuilder builds the query
-	 * @param threadSafe an index that is threadsafe
-	 * @param webCrawler crawl the web
-	 */
-	public SearchServlet(QueryBuilderInterface queryBuilder, ThreadSafeInvertedIndex threadSafe,
-			WebCrawler webCrawler) {
-		super();
-		this.webCrawler = webCrawler;
+		this.index = index;
 		outputQueue = new ConcurrentLinkedQueue<>();
 	}
 
@@ -138,6 +127,7 @@ public class SearchServlet extends HttpServlet {
 		out.printf("%n");
 		out.printf("%n");
 		out.printf("<input type = \"checkbox\" name = \"exact\" id = \"exact\" > Exact");
+		out.printf("<input type = \"checkbox\" name = \"all\" id = \"all\" > All words");
 		out.printf("%n");
 		out.printf("				<div class=\"control\">%n");
 		out.printf("			    <button class=\"button is-link\" type=\"submit\">%n");
@@ -208,6 +198,7 @@ public class SearchServlet extends HttpServlet {
 		long st = System.nanoTime();
 		String message = request.getParameter("search");
 		String checkBox = request.getParameter("exact");
+		String allBox = request.getParameter("all");
 
 		if (message == null) {
 			message = "";
@@ -225,18 +216,20 @@ public class SearchServlet extends HttpServlet {
 			exact = false;
 		}
 
+		boolean allWords = allBox != null && allBox.contains("on");
+
 		String formatString = null;
 
-		SnowballStemmer stemmer = new SnowballStemmer(DEFAULT);
-		ArrayList<String> queryList = new ArrayList<String>();
-		for (String part : message.split(" ")) {
-			if (part == " ") {
-				part = "";
-			}
-			queryList.add((stemmer.stem(part.toLowerCase())).toString());
-		}
+		// the raw text is parsed, since escaping turns the quotes marking phrases into entities
+		String search = request.getParameter("search");
+		Query query = Query.parse(search == null ? "" : search);
 
-		List<InvertedIndex.Result> results = this.webCrawler.search(queryList, exact);
+		List<InvertedIndex.Result> results;
+		if (allWords) {
+			results = this.index.conjunctiveSearch(query, exact, RESULTS_PER_PAGE);
+		} else {
+			results = this.index.search(query, exact, RESULTS_PER_PAGE);
+		}
 
 		if (results == null || results.isEmpty()) {
 			searches = 0;
@@ -249,7 +242,7 @@ public class SearchServlet extends HttpServlet {
 		} else {
 			searches = 0;
 			outputQueue.clear();
-			for (ThreadSafeInvertedIndex.Result result : results) {
+			for (InvertedIndex.Result result : results) {
 				formatString = String.format(
 						"<a href=\"%s\">%s</a>"
 								+ "					<p class=\"has-text-grey is-size-7 has-text-right\">%s</p>%n",
@@ -0,0 +1,663 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only version of a mutable index, made of immutable
+ * {@link FrozenInvertedIndex} segments that each hold the documents of a
+ * range of ids. Documents keep the ids they have in the mutable index, so the
+ * postings of a word are the postings of each segment one after the other,
+ * and documents removed after their segment was frozen are skipped using the
+ * tombstones of the mutable index.
+ *
+ * A new version is made by {@link #update(InvertedIndex, Collection, BitSet)},
+ * which freezes only the documents added since this version into a new
+ * segment, and shares every other segment unless one of its documents was
+ * added to. Newer segments are merged into older ones once they grow to half
+ * their size, so there are only a logarithmic number of segments and every
+ * document is frozen again only a logarithmic number of times.
+ *
+ * @author nedimazar
+ */
+public class SegmentedInvertedIndex extends InvertedIndex {
+
+	/**
+	 * How many times as many document ids a segment must cover as the next newer
+	 * one to be left unmerged.
+	 */
+	public static final int MERGE_FACTOR = 2;
+
+	/**
+	 * The segments, oldest first.
+	 */
+	private final FrozenInvertedIndex[] segments;
+
+	/**
+	 * The first document id of each segment.
+	 */
+	private final int[] firsts;
+
+	/**
+	 * The number of document ids covered by the segments.
+	 */
+	private final int size;
+
+	/**
+	 * The ids of removed documents, or null if none was ever removed.
+	 */
+	private final BitSet deleted;
+
+	/**
+	 * The number of documents not removed.
+	 */
+	private final int live;
+
+	/**
+	 * The average word count of the documents not removed.
+	 */
+	private final double average;
+
+	/**
+	 * The rank of the location of each document among every location, or null
+	 * until first needed.
+	 */
+	private volatile int[] ranks;
+
+	/**
+	 * Every word with a posting in a document not removed, or null until first
+	 * needed.
+	 */
+	private volatile Set<String> words;
+
+	/**
+	 * The merged postings of the short prefixes searched so far.
+	 */
+	private final ConcurrentHashMap<String, MergedPostings> merged;
+
+	/**
+	 * Initializes an empty index.
+	 *
+	 * @param positions whether the postings keep positions
+	 */
+	public SegmentedInvertedIndex(boolean positions) {
+		this(new FrozenInvertedIndex[0], null, 0, 0, positions);
+	}
+
+	/**
+	 * Initializes an index made of segments.
+	 *
+	 * @param segments  the segments, oldest first, which cover every document
+	 *                  id from 0 without gaps
+	 * @param deleted   the ids of removed documents, or null if there are none
+	 * @param live      the number of documents not removed
+	 * @param average   the average word count of the documents not removed
+	 * @param positions whether the postings keep positions
+	 */
+	private SegmentedInvertedIndex(FrozenInvertedIndex[] segments, BitSet deleted, int live, double average,
+			boolean positions) {
+		super(positions);
+		this.segments = segments;
+		this.firsts = new int[segments.length];
+
+		int size = 0;
+		for (int i = 0; i < segments.length; i++) {
+			this.firsts[i] = size;
+			size += segments[i].getDocumentCount();
+		}
+
+		this.size = size;
+		this.deleted = deleted;
+		this.live = live;
+		this.average = average;
+		this.merged = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Returns a new version of this index holding every change made to the
+	 * index it was made from since. The source must not change meanwhile.
+	 *
+	 * @param source  the mutable index this one is a version of
+	 * @param words   every word whose postings changed since this version
+	 * @param changed the ids of every document added to since this version
+	 * @return the new version
+	 */
+	public SegmentedInvertedIndex update(InvertedIndex source, Collection<String> words, BitSet changed) {
+		ArrayList<FrozenInvertedIndex> segments = new ArrayList<>(Arrays.asList(this.segments));
+
+		for (int i = 0; i < segments.size(); i++) {
+			int first = this.firsts[i];
+			int last = first + segments.get(i).getDocumentCount();
+			int id = changed.nextSetBit(first);
+
+			if (id >= 0 && id < last) {
+				segments.set(i, source.freeze(first, last, union(segments.get(i), words)));
+			}
+		}
+
+		int size = source.getDocumentCount();
+		if (size > this.size) {
+			segments.add(source.freeze(this.size, size, words));
+		}
+
+		while (segments.size() > 1) {
+			FrozenInvertedIndex newer = segments.get(segments.size() - 1);
+			FrozenInvertedIndex older = segments.get(segments.size() - 2);
+
+			if (older.getDocumentCount() > MERGE_FACTOR * newer.getDocumentCount()) {
+				break;
+			}
+
+			int first = size - older.getDocumentCount() - newer.getDocumentCount();
+			segments.remove(segments.size() - 1);
+			segments.set(segments.size() - 1, source.freeze(first, size, union(older, newer.getWords())));
+		}
+
+		SegmentedInvertedIndex updated = new SegmentedInvertedIndex(segments.toArray(new FrozenInvertedIndex[0]),
+				source.getDeleted(), source.getLiveCount(), source.getAverageWordCount(), hasPositions());
+		updated.setScoringModel(source.getScoringModel());
+		return updated;
+	}
+
+	/**
+	 * Returns the words of a segment along with some others.
+	 *
+	 * @param segment the segment
+	 * @param words   the other words
+	 * @return every word of either
+	 */
+	private static Set<String> union(FrozenInvertedIndex segment, Collection<String> words) {
+		HashSet<String> union = new HashSet<>(segment.getWords());
+		union.addAll(words);
+		return union;
+	}
+
+	/**
+	 * Returns the number of segments.
+	 *
+	 * @return the number of segments
+	 */
+	public int getSegmentCount() {
+		return this.segments.length;
+	}
+
+	@Override
+	public Set<String> getWords() {
+		Set<String> words = this.words;
+
+		if (words == null) {
+			TreeSet<String> all = new TreeSet<>();
+			for (FrozenInvertedIndex segment : this.segments) {
+				all.addAll(segment.getWords());
+			}
+
+			if (this.deleted != null) {
+				all.removeIf(word -> !hasWord(word));
+			}
+			words = Collections.unmodifiableSet(all);
+			this.words = words;
+		}
+		return words;
+	}
+
+	@Override
+	public int size() {
+		return getWords().size();
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		checkPositions();
+		int segment = findSegment(location);
+
+		if (segment < 0) {
+			return Collections.emptySet();
+		}
+		return this.segments[segment].getPositions(word, location);
+	}
+
+	@Override
+	public SortedMap<String, Set<Integer>> getPostings(String word) {
+		checkPositions();
+		PostingIterator postings = iterator(word);
+
+		if (postings == null) {
+			return Collections.emptySortedMap();
+		}
+
+		TreeMap<String, Set<Integer>> map = new TreeMap<>();
+		while (postings.nextDocument() != PostingIterator.NO_MORE_DOCUMENTS) {
+			PositionList positions = new PositionList();
+			for (int position : postings.getPositions()) {
+				positions.add(position);
+			}
+			map.put(getLocation(postings.getDocument()), Collections.unmodifiableSet(positions));
+		}
+		return Collections.unmodifiableSortedMap(map);
+	}
+
+	@Override
+	public SortedMap<String, Integer> getFrequencies(String word) {
+		PostingIterator postings = iterator(word);
+
+		if (postings == null) {
+			return Collections.emptySortedMap();
+		}
+
+		TreeMap<String, Integer> map = new TreeMap<>();
+		while (postings.nextDocument() != PostingIterator.NO_MORE_DOCUMENTS) {
+			map.put(getLocation(postings.getDocument()), postings.getFrequency());
+		}
+		return Collections.unmodifiableSortedMap(map);
+	}
+
+	@Override
+	public boolean add(String word, String filename, int position) {
+		throw new UnsupportedOperationException("A segmented index is read-only.");
+	}
+
+	@Override
+	public void addAll(InvertedIndex other) {
+		throw new UnsupportedOperationException("A segmented index is read-only.");
+	}
+
+	@Override
+	public void readBinary(Path inputFile) throws IOException {
+		throw new UnsupportedOperationException("A segmented index is read-only.");
+	}
+
+	@Override
+	public boolean removeLocation(String location) {
+		throw new UnsupportedOperationException("A segmented index is read-only.");
+	}
+
+	/**
+	 * Packs every segment into a single frozen index, leaving out removed
+	 * documents.
+	 */
+	@Override
+	public InvertedIndex freeze() {
+		DocumentTable table = new DocumentTable();
+		int[] remap = new int[this.size];
+
+		for (int document = 0; document < this.size; document++) {
+			String location = getLocation(document);
+			remap[document] = location == null || isDeleted(document) ? -1 : table.add(location);
+
+			if (remap[document] >= 0) {
+				table.updateCount(remap[document], getWordCount(document));
+			}
+		}
+
+		TreeMap<String, PostingList> postings = new TreeMap<>();
+		for (String word : getWords()) {
+			PostingIterator iterator = iterator(word);
+			PostingList list = new PostingList(hasPositions());
+
+			while (iterator.nextDocument() != PostingIterator.NO_MORE_DOCUMENTS) {
+				int document = remap[iterator.getDocument()];
+
+				if (hasPositions()) {
+					PositionList positions = new PositionList();
+					for (int position : iterator.getPositions()) {
+						positions.add(position);
+					}
+					list.add(document, positions);
+				} else {
+					list.count(document, iterator.getFrequency());
+				}
+			}
+			postings.put(word, list);
+		}
+
+		FrozenInvertedIndex frozen = new FrozenInvertedIndex(postings, table, hasPositions());
+		frozen.setScoringModel(getScoringModel());
+		return frozen;
+	}
+
+	@Override
+	public void writeIndex(Path outputFile) throws IOException {
+		freeze().writeIndex(outputFile);
+	}
+
+	@Override
+	public void writeBinary(Path outputFile) throws IOException {
+		freeze().writeBinary(outputFile);
+	}
+
+	@Override
+	public void writeSegment(Path outputFile) throws IOException {
+		freeze().writeSegment(outputFile);
+	}
+
+	@Override
+	public Map<String, Integer> getUnmodifiableCounts() {
+		TreeMap<String, Integer> map = new TreeMap<>();
+
+		for (int document = 0; document < this.size; document++) {
+			String location = getLocation(document);
+
+			if (location != null && !isDeleted(document)) {
+				map.put(location, getWordCount(document));
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public boolean hasWord(String word) {
+		PostingIterator postings = iterator(word);
+		return postings != null && postings.nextDocument() != PostingIterator.NO_MORE_DOCUMENTS;
+	}
+
+	@Override
+	public boolean hasLocation(String word, String location) {
+		int segment = findSegment(location);
+		return segment >= 0 && this.segments[segment].hasLocation(word, location);
+	}
+
+	@Override
+	protected void collectPostings(String query, boolean exact, Collection<PostingIterator> postings) {
+		if (exact) {
+			PostingIterator iterator = iterator(query);
+			if (iterator != null) {
+				postings.add(iterator);
+			}
+			return;
+		}
+
+		TreeMap<String, PostingIterator[]> words = new TreeMap<>();
+		HashMap<String, PostingIterator> found = new HashMap<>();
+
+		for (int i = 0; i < this.segments.length; i++) {
+			found.clear();
+			this.segments[i].collectPostings(query, found);
+
+			for (Map.Entry<String, PostingIterator> entry : found.entrySet()) {
+				PostingIterator[] parts = words.computeIfAbsent(entry.getKey(),
+						word -> new PostingIterator[this.segments.length]);
+				parts[i] = entry.getValue();
+			}
+		}
+
+		if (!getScoringModel().weighsPostings() && MergedPostings.isWorthMerging(query, words.size())) {
+			postings.add(this.merged.computeIfAbsent(query, prefix -> merge(words.values())).iterator());
+			return;
+		}
+
+		for (PostingIterator[] parts : words.values()) {
+			postings.add(skipDeleted(new SegmentPostings(parts), this.deleted));
+		}
+	}
+
+	/**
+	 * Returns an iterator over the postings of a word in every segment.
+	 *
+	 * @param word the word
+	 * @return the iterator, skipping removed documents, or null if no segment
+	 *         holds the word
+	 */
+	private PostingIterator iterator(String word) {
+		PostingIterator[] parts = new PostingIterator[this.segments.length];
+		ArrayList<PostingIterator> found = new ArrayList<>(1);
+
+		for (int i = 0; i < this.segments.length; i++) {
+			found.clear();
+			this.segments[i].collectPostings(word, true, found);
+			parts[i] = found.isEmpty() ? null : found.get(0);
+		}
+
+		for (PostingIterator part : parts) {
+			if (part != null) {
+				return skipDeleted(new SegmentPostings(parts), this.deleted);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Merges the postings of several words.
+	 *
+	 * @param words the postings of each word in every segment
+	 * @return the merged postings
+	 */
+	private MergedPostings merge(Collection<PostingIterator[]> words) {
+		ArrayList<PostingIterator> postings = new ArrayList<>(words.size());
+
+		for (PostingIterator[] parts : words) {
+			postings.add(skipDeleted(new SegmentPostings(parts), this.deleted));
+		}
+		return new MergedPostings(postings, this.size, this::getWordCount);
+	}
+
+	/**
+	 * Finds the segment holding a location that was not removed.
+	 *
+	 * @param location the location to find
+	 * @return the index of the segment, or -1 if the location is not stored
+	 */
+	private int findSegment(String location) {
+		for (int i = this.segments.length - 1; i >= 0; i--) {
+			int document = this.segments[i].findLocation(location);
+
+			if (document >= 0 && !isDeleted(this.firsts[i] + document)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the segment holding a document id.
+	 *
+	 * @param document the document id
+	 * @return the index of the segment
+	 */
+	private int getSegment(int document) {
+		int index = Arrays.binarySearch(this.firsts, document);
+		return index >= 0 ? index : -(index + 1) - 1;
+	}
+
+	/**
+	 * Checks whether a document was removed.
+	 *
+	 * @param document the document id
+	 * @return true if the document was removed
+	 */
+	private boolean isDeleted(int document) {
+		return this.deleted != null && this.deleted.get(document);
+	}
+
+	@Override
+	protected int getDocumentCount() {
+		return this.size;
+	}
+
+	@Override
+	protected String getLocation(int document) {
+		int segment = getSegment(document);
+		return this.segments[segment].getLocation(document - this.firsts[segment]);
+	}
+
+	/**
+	 * Returns the rank of the location of a document, sorting every location
+	 * the first time one is asked for. Each segment keeps its own locations
+	 * sorted, so they are only merged.
+	 */
+	@Override
+	protected int getLocationRank(int document) {
+		int[] ranks = this.ranks;
+
+		if (ranks == null) {
+			ranks = rankLocations();
+			this.ranks = ranks;
+		}
+		return ranks[document];
+	}
+
+	/**
+	 * Ranks the location of every document by merging the sorted locations of
+	 * each segment.
+	 *
+	 * @return the rank of each document
+	 */
+	private int[] rankLocations() {
+		int[] ranks = new int[this.size];
+		int[][] sorted = new int[this.segments.length][];
+		PriorityQueue<int[]> next = new PriorityQueue<>(Math.max(1, this.segments.length),
+				(a, b) -> getLocation(a[0]).compareTo(getLocation(b[0])));
+
+		for (int i = 0; i < this.segments.length; i++) {
+			FrozenInvertedIndex segment = this.segments[i];
+			sorted[i] = new int[segment.getLiveCount()];
+
+			for (int document = 0; document < segment.getDocumentCount(); document++) {
+				if (segment.getLocation(document) != null) {
+					sorted[i][segment.getLocationRank(document)] = this.firsts[i] + document;
+				}
+			}
+
+			// each entry holds the next document of a segment, the segment and
+			// the index of the document in its sorted order
+			if (sorted[i].length > 0) {
+				next.add(new int[] { sorted[i][0], i, 0 });
+			}
+		}
+
+		int rank = 0;
+		while (!next.isEmpty()) {
+			int[] entry = next.poll();
+			ranks[entry[0]] = rank++;
+
+			if (++entry[2] < sorted[entry[1]].length) {
+				entry[0] = sorted[entry[1]][entry[2]];
+				next.add(entry);
+			}
+		}
+		return ranks;
+	}
+
+	@Override
+	protected int getWordCount(int document) {
+		int segment = getSegment(document);
+		return this.segments[segment].getWordCount(document - this.firsts[segment]);
+	}
+
+	@Override
+	protected int getLiveCount() {
+		return this.live;
+	}
+
+	@Override
+	protected double getAverageWordCount() {
+		return this.average;
+	}
+
+	/**
+	 * Iterates over the postings of a word in every segment, one segment after
+	 * the other.
+	 */
+	private class SegmentPostings implements PostingIterator {
+
+		/**
+		 * The iterator over the postings in each segment, or null where the
+		 * segment does not hold the word.
+		 */
+		private final PostingIterator[] parts;
+
+		/**
+		 * The index of the current segment.
+		 */
+		private int segment;
+
+		/**
+		 * The current document id.
+		 */
+		private int document;
+
+		/**
+		 * Initializes an iterator over the postings of a word.
+		 *
+		 * @param parts the iterator over the postings in each segment, or null
+		 *              where the segment does not hold the word
+		 */
+		public SegmentPostings(PostingIterator[] parts) {
+			this.parts = parts;
+			this.segment = 0;
+			this.document = -1;
+		}
+
+		@Override
+		public int nextDocument() {
+			while (this.segment < this.parts.length) {
+				PostingIterator part = this.parts[this.segment];
+
+				if (part != null && part.nextDocument() != NO_MORE_DOCUMENTS) {
+					return this.document = firsts[this.segment] + part.getDocument();
+				}
+				this.segment++;
+			}
+			return this.document = NO_MORE_DOCUMENTS;
+		}
+
+		@Override
+		public int advance(int target) {
+			while (this.segment < this.parts.length) {
+				PostingIterator part = this.parts[this.segment];
+				int end = this.segment + 1 < firsts.length ? firsts[this.segment + 1] : size;
+
+				if (part != null && target < end
+						&& part.advance(Math.max(0, target - firsts[this.segment])) != NO_MORE_DOCUMENTS) {
+					return this.document = firsts[this.segment] + part.getDocument();
+				}
+				this.segment++;
+			}
+			return this.document = NO_MORE_DOCUMENTS;
+		}
+
+		@Override
+		public int getDocument() {
+			return this.document;
+		}
+
+		@Override
+		public int getFrequency() {
+			return this.parts[this.segment].getFrequency();
+		}
+
+		@Override
+		public int getDocumentFrequency() {
+			int frequency = 0;
+			for (PostingIterator part : this.parts) {
+				frequency += part == null ? 0 : part.getDocumentFrequency();
+			}
+			return frequency;
+		}
+
+		@Override
+		public double getMaxScore() {
+			double max = 0;
+			for (PostingIterator part : this.parts) {
+				max = Math.max(max, part == null ? 0 : part.getMaxScore());
+			}
+			return max;
+		}
+
+		@Override
+		public int[] getPositions() {
+			return this.parts[this.segment].getPositions();
+		}
+	}
+}
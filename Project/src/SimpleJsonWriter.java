@@ -10,7 +10,6 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * Outputs several simple data structures in "pretty" JSON format where newlines
@@ -236,8 +235,8 @@ public class SimpleJsonWriter {
 	 * @param level
 	 * @throws IOException
 	 */
-	public static void asInvertedIndex(TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex, Writer writer,
-			int level) throws IOException {
+	public static void asInvertedIndex(Map<String, ? extends Map<String, ? extends Collection<Integer>>> invertedIndex,
+			Writer writer, int level) throws IOException {
 		Iterator<String> iterator = invertedIndex.keySet().iterator();
 		writer.write("{");
 
@@ -270,8 +269,87 @@ public class SimpleJsonWriter {
 	 * @param path
 	 * @throws IOException
 	 */
-	public static void asInvertedIndex(TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex, Path path)
+	public static void asInvertedIndex(Map<String, ? extends Map<String, ? extends Collection<Integer>>> invertedIndex,
+			Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			asInvertedIndex(invertedIndex, writer, 0);
+		}
+	}
+
+	/**
+	 * Writes the words of an inverted index with the positions of each word in
+	 * every location it appears in, or with how many times it appears there if
+	 * the index does not store positions.
+	 *
+	 * @param invertedIndex the index to write
+	 * @param writer        the writer to use
+	 * @param level         the initial indent level
+	 * @throws IOException
+	 */
+	public static void asInvertedIndex(InvertedIndex invertedIndex, Writer writer, int level) throws IOException {
+		Iterator<String> iterator = invertedIndex.getWords().iterator();
+		writer.write("{");
+
+		if (iterator.hasNext()) {
+			String key = iterator.next();
+			writer.write("\n");
+			indent(writer, level + 1);
+			quote(key, writer);
+			writer.write(": ");
+			asPostings(invertedIndex, key, writer, level + 1);
+		}
+
+		while (iterator.hasNext()) {
+			String key = iterator.next();
+			writer.write(",\n");
+			indent(writer, level + 1);
+			quote(key, writer);
+			writer.write(": ");
+			asPostings(invertedIndex, key, writer, level + 1);
+		}
+
+		indent("\n}", writer, level);
+	}
+
+	/**
+	 * Writes the positions of a word in every location it appears in, or how
+	 * many times it appears there if the index does not store positions.
+	 *
+	 * @param invertedIndex the index to write from
+	 * @param word          the word whose postings to write
+	 * @param writer        the writer to use
+	 * @param level         the initial indent level
+	 * @throws IOException
+	 */
+	private static void asPostings(InvertedIndex invertedIndex, String word, Writer writer, int level)
 			throws IOException {
+		if (invertedIndex.hasPositions()) {
+			asNestedObject(invertedIndex.getPostings(word), writer, level);
+			return;
+		}
+
+		Iterator<Map.Entry<String, Integer>> entries = invertedIndex.getFrequencies(word).entrySet().iterator();
+		writer.write("{\n");
+
+		while (entries.hasNext()) {
+			Map.Entry<String, Integer> entry = entries.next();
+			indent(writer, level + 1);
+			quote(entry.getKey(), writer);
+			writer.write(": " + entry.getValue());
+			writer.write(entries.hasNext() ? ",\n" : "");
+		}
+
+		writer.write("\n}");
+	}
+
+	/**
+	 * Calls the other invertedIndex method
+	 *
+	 * @param invertedIndex the index to write
+	 * @param path          the file path to use
+	 * @throws IOException
+	 */
+	public static void asInvertedIndex(InvertedIndex invertedIndex, Path path) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
 			asInvertedIndex(invertedIndex, writer, 0);
 		}
@@ -333,6 +411,39 @@ public class SimpleJsonWriter {
 		writer.write('"');
 	}
 
+	/**
+	 * Escapes the quotation marks, backslashes and control characters of a
+	 * string so that it can be written between quotation marks.
+	 *
+	 * @param element the string to escape
+	 * @return the escaped string, or the same string if nothing needed escaping
+	 */
+	public static String escape(String element) {
+		StringBuilder escaped = null;
+
+		for (int i = 0; i < element.length(); i++) {
+			char c = element.charAt(i);
+
+			if (c != '"' && c != '\\' && c >= 0x20) {
+				if (escaped != null) {
+					escaped.append(c);
+				}
+				continue;
+			}
+
+			if (escaped == null) {
+				escaped = new StringBuilder(element.length() + 8).append(element, 0, i);
+			}
+
+			if (c < 0x20) {
+				escaped.append(String.format("\\u%04x", (int) c));
+			} else {
+				escaped.append('\\').append(c);
+			}
+		}
+		return escaped == null ? element : escaped.toString();
+	}
+
 	/**
 	 * Indents and then writes the element surrounded by {@code " "} quotation
 	 * marks.
@@ -378,7 +489,7 @@ public class SimpleJsonWriter {
 			String nextQuery = iterator.next();
 			indent(writer, level + 1);
 
-			writer.write("\"" + nextQuery.toString() + "\": [");
+			writer.write("\"" + escape(nextQuery) + "\": [");
 
 			indent(writer, level + 1);
 
@@ -405,7 +516,7 @@ public class SimpleJsonWriter {
 			writer.write(",\n");
 			indent(writer, level + 1);
 
-			writer.write("\"" + nextQuery.toString() + "\": [");
+			writer.write("\"" + escape(nextQuery) + "\": [");
 
 			indent(writer, level + 1);
 
@@ -445,7 +556,9 @@ public class SimpleJsonWriter {
 		writer.write("{\n");
 		indent(writer, level + 3);
 		var nexto = innerIterator.next();
-		writer.write(nexto.getWhereString() + "\n");
+		writer.write("\"where\": ");
+		quote(escape(nexto.getLocation()), writer);
+		writer.write(",\n");
 		indent(writer, level + 3);
 		writer.write(nexto.getCountString() + "\n");
 		indent(writer, level + 3);
@@ -472,7 +585,9 @@ public class SimpleJsonWriter {
 		writer.write("\t{\n");
 		indent(writer, level + 3);
 		var nexto = innerIterator.next();
-		writer.write(nexto.getWhereString() + "\n");
+		writer.write("\"where\": ");
+		quote(escape(nexto.getLocation()), writer);
+		writer.write(",\n");
 		indent(writer, level + 3);
 		writer.write(nexto.getCountString() + "\n");
 		indent(writer, level + 3);
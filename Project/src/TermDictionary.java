@@ -0,0 +1,494 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, read-only dictionary of sorted, distinct words, which maps each
+ * word to its ordinal: its index in sorted order. The postings of a word are
+ * found through its ordinal.
+ *
+ * Words are front coded in blocks of {@link #BLOCK_SIZE}. The first word of a
+ * block is stored whole, and every other word as the number of leading bytes
+ * it shares with the word before it and the bytes that follow. Sorted words
+ * share long prefixes, so most words take a few bytes, against a String, its
+ * array and a tree node each in a map. A lookup binary searches the first
+ * words of the blocks and then decodes a single block.
+ *
+ * Each character is encoded on its own, like UTF-8 encodes code points, so
+ * comparing the bytes of two words orders them exactly like
+ * {@link String#compareTo(String)} and a word starts with a prefix exactly
+ * when its bytes start with the bytes of the prefix.
+ *
+ * A dictionary is read from a {@link ByteBuffer} with absolute reads only, so
+ * it can be kept on the heap or in a memory-mapped file, and any number of
+ * threads may use it at once. It is laid out as the number of words, the
+ * number of blocks, where each block starts, and the blocks themselves.
+ *
+ * @author nedimazar
+ */
+public class TermDictionary {
+
+	/**
+	 * The number of words in a block.
+	 */
+	public static final int BLOCK_SIZE = 16;
+
+	/**
+	 * The buffer holding the dictionary.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Where the dictionary starts in the buffer.
+	 */
+	private final int start;
+
+	/**
+	 * The number of words.
+	 */
+	private final int size;
+
+	/**
+	 * The number of blocks.
+	 */
+	private final int blocks;
+
+	/**
+	 * Where the blocks start in the buffer.
+	 */
+	private final int data;
+
+	/**
+	 * Reads a dictionary written by {@link #write(Collection, DataOutput)}.
+	 *
+	 * @param buffer the buffer holding the dictionary
+	 * @param start  where the dictionary starts in the buffer
+	 */
+	public TermDictionary(ByteBuffer buffer, int start) {
+		this.buffer = buffer;
+		this.start = start;
+		this.size = buffer.getInt(start);
+		this.blocks = buffer.getInt(start + 4);
+		this.data = start + 8 + 4 * this.blocks;
+	}
+
+	/**
+	 * Builds a dictionary on the heap.
+	 *
+	 * @param words the words, sorted and distinct
+	 * @return the dictionary
+	 */
+	public static TermDictionary of(Collection<String> words) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try {
+			write(words, new DataOutputStream(bytes));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new TermDictionary(ByteBuffer.wrap(bytes.toByteArray()), 0);
+	}
+
+	/**
+	 * Writes a dictionary.
+	 *
+	 * @param words  the words, sorted and distinct
+	 * @param output where to write
+	 * @throws IOException if unable to write
+	 */
+	public static void write(Collection<String> words, DataOutput output) throws IOException {
+		int blocks = (words.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream encoded = new DataOutputStream(bytes);
+		int[] offsets = new int[blocks];
+		byte[] previous = new byte[0];
+		String last = null;
+		int count = 0;
+
+		for (String word : words) {
+			if (last != null && last.compareTo(word) >= 0) {
+				throw new IllegalArgumentException("Words must be sorted and distinct: " + last + ", " + word);
+			}
+
+			byte[] current = encode(word);
+			int shared = 0;
+
+			if (count % BLOCK_SIZE == 0) {
+				offsets[count / BLOCK_SIZE] = encoded.size();
+			} else {
+				int limit = Math.min(previous.length, current.length);
+				while (shared < limit && previous[shared] == current[shared]) {
+					shared++;
+				}
+			}
+
+			Varint.write(shared, encoded);
+			Varint.write(current.length - shared, encoded);
+			encoded.write(current, shared, current.length - shared);
+
+			previous = current;
+			last = word;
+			count++;
+		}
+
+		output.writeInt(count);
+		output.writeInt(blocks);
+		for (int offset : offsets) {
+			output.writeInt(offset);
+		}
+		output.write(bytes.toByteArray());
+	}
+
+	/**
+	 * Returns the number of words.
+	 *
+	 * @return the number of words
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of bytes the dictionary takes.
+	 *
+	 * @return the size of the dictionary in bytes
+	 */
+	public int getByteSize() {
+		if (this.blocks == 0) {
+			return this.data - this.start;
+		}
+
+		Cursor cursor = new Cursor(this.blocks - 1);
+		while (cursor.ordinal < this.size - 1) {
+			cursor.next();
+		}
+		return cursor.offset - this.start;
+	}
+
+	/**
+	 * Returns the word with an ordinal.
+	 *
+	 * @param ordinal the ordinal of the word
+	 * @return the word
+	 */
+	public String get(int ordinal) {
+		if (ordinal < 0 || ordinal >= this.size) {
+			throw new IndexOutOfBoundsException(ordinal);
+		}
+
+		Cursor cursor = new Cursor(ordinal / BLOCK_SIZE);
+		while (cursor.ordinal < ordinal) {
+			cursor.next();
+		}
+		return cursor.getWord();
+	}
+
+	/**
+	 * Finds the ordinal of a word.
+	 *
+	 * @param word the word to find
+	 * @return the ordinal of the word if found, otherwise
+	 *         {@code -(insertion point) - 1}, like
+	 *         {@link Arrays#binarySearch(Object[], Object)}
+	 */
+	public int find(String word) {
+		byte[] key = encode(word);
+		Cursor cursor = seek(key, false);
+
+		if (cursor != null && compare(cursor.bytes, cursor.length, key, false) == 0) {
+			return cursor.ordinal;
+		}
+		return -(cursor == null ? this.size : cursor.ordinal) - 1;
+	}
+
+	/**
+	 * Finds the range of words starting with a prefix.
+	 *
+	 * @param prefix the prefix
+	 * @return the ordinal just past the last word starting with the prefix; the
+	 *         first is the insertion point returned by {@link #find(String)}
+	 */
+	public int prefixEnd(String prefix) {
+		Cursor cursor = seek(encode(prefix), true);
+		return cursor == null ? this.size : cursor.ordinal;
+	}
+
+	/**
+	 * Returns a read-only set view of the words, in order.
+	 *
+	 * @return the words
+	 */
+	public Set<String> asSet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new Iterator<>() {
+					/** The cursor on the previous word, or null before the first. */
+					private Cursor cursor = null;
+
+					@Override
+					public boolean hasNext() {
+						return (this.cursor == null ? 0 : this.cursor.ordinal + 1) < size;
+					}
+
+					@Override
+					public String next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						if (this.cursor == null) {
+							this.cursor = new Cursor(0);
+						} else {
+							this.cursor.next();
+						}
+						return this.cursor.getWord();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object object) {
+				return object instanceof String && find((String) object) >= 0;
+			}
+		};
+	}
+
+	/**
+	 * Finds the first word that compares after a key, or at or after it.
+	 *
+	 * @param key  the encoded key
+	 * @param past true for the first word greater than every word starting
+	 *             with the key, false for the first word not less than the key
+	 * @return a cursor on the word, or null if there is none
+	 */
+	private Cursor seek(byte[] key, boolean past) {
+		int low = 0;
+		int high = this.blocks;
+
+		// find the first block whose first word is not before the key
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (isBefore(new Cursor(middle), key, past)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		if (low == 0) {
+			return this.size == 0 ? null : new Cursor(0);
+		}
+
+		Cursor cursor = new Cursor(low - 1);
+		int end = Math.min(this.size, low * BLOCK_SIZE);
+
+		while (cursor.ordinal + 1 < end) {
+			cursor.next();
+
+			if (!isBefore(cursor, key, past)) {
+				return cursor;
+			}
+		}
+		return low == this.blocks ? null : new Cursor(low);
+	}
+
+	/**
+	 * Checks whether the word under a cursor comes before what is sought.
+	 *
+	 * @param cursor the cursor
+	 * @param key    the encoded key
+	 * @param past   whether words starting with the key come before
+	 * @return true if the word comes before
+	 */
+	private static boolean isBefore(Cursor cursor, byte[] key, boolean past) {
+		int compared = compare(cursor.bytes, cursor.length, key, past);
+		return past ? compared <= 0 : compared < 0;
+	}
+
+	/**
+	 * Compares encoded words as unsigned bytes.
+	 *
+	 * @param word     the bytes of a word
+	 * @param length   the number of bytes of the word
+	 * @param key      the bytes of the key
+	 * @param truncate true to only compare the word up to the length of the key
+	 * @return a negative number, zero or a positive number as the word is less
+	 *         than, equal to or greater than the key
+	 */
+	private static int compare(byte[] word, int length, byte[] key, boolean truncate) {
+		int limit = Math.min(length, key.length);
+
+		for (int i = 0; i < limit; i++) {
+			int compared = (word[i] & 0xFF) - (key[i] & 0xFF);
+
+			if (compared != 0) {
+				return compared;
+			}
+		}
+
+		if (truncate && length >= key.length) {
+			return 0;
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Encodes a word one character at a time, each as one to three bytes laid
+	 * out like UTF-8.
+	 *
+	 * @param word the word
+	 * @return the encoded bytes
+	 */
+	private static byte[] encode(String word) {
+		byte[] bytes = new byte[3 * word.length()];
+		int length = 0;
+
+		for (int i = 0; i < word.length(); i++) {
+			char c = word.charAt(i);
+
+			if (c < 0x80) {
+				bytes[length++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[length++] = (byte) (0xC0 | c >> 6);
+				bytes[length++] = (byte) (0x80 | c & 0x3F);
+			} else {
+				bytes[length++] = (byte) (0xE0 | c >> 12);
+				bytes[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+				bytes[length++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		return Arrays.copyOf(bytes, length);
+	}
+
+	/**
+	 * Decodes a word encoded by {@link #encode(String)}.
+	 *
+	 * @param bytes  the encoded bytes
+	 * @param length the number of bytes
+	 * @return the word
+	 */
+	private static String decode(byte[] bytes, int length) {
+		char[] chars = new char[length];
+		int count = 0;
+
+		for (int i = 0; i < length; i++) {
+			int b = bytes[i] & 0xFF;
+
+			if (b < 0x80) {
+				chars[count++] = (char) b;
+			} else if (b < 0xE0) {
+				chars[count++] = (char) ((b & 0x1F) << 6 | bytes[++i] & 0x3F);
+			} else {
+				chars[count++] = (char) ((b & 0x0F) << 12 | (bytes[++i] & 0x3F) << 6 | bytes[++i] & 0x3F);
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	/**
+	 * Decodes words one after the other into a reused array. Blocks follow each
+	 * other and start with a whole word, so a cursor can move from one block
+	 * into the next.
+	 *
+	 * @author nedimazar
+	 */
+	private class Cursor {
+
+		/**
+		 * The ordinal of the current word.
+		 */
+		private int ordinal;
+
+		/**
+		 * Where the next word starts in the buffer.
+		 */
+		private int offset;
+
+		/**
+		 * The bytes of the current word.
+		 */
+		private byte[] bytes;
+
+		/**
+		 * The number of bytes of the current word.
+		 */
+		private int length;
+
+		/**
+		 * Initializes a cursor on the first word of a block.
+		 *
+		 * @param block the block
+		 */
+		public Cursor(int block) {
+			this.ordinal = block * BLOCK_SIZE - 1;
+			this.offset = data + buffer.getInt(start + 8 + 4 * block);
+			this.bytes = new byte[32];
+			this.length = 0;
+			next();
+		}
+
+		/**
+		 * Moves to the next word.
+		 */
+		public void next() {
+			int shared = readVarint();
+			int suffix = readVarint();
+
+			if (shared + suffix > this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, Math.max(shared + suffix, 2 * this.bytes.length));
+			}
+
+			for (int i = 0; i < suffix; i++) {
+				this.bytes[shared + i] = buffer.get(this.offset + i);
+			}
+
+			this.offset += suffix;
+			this.length = shared + suffix;
+			this.ordinal++;
+		}
+
+		/**
+		 * Returns the current word.
+		 *
+		 * @return the word
+		 */
+		public String getWord() {
+			return decode(this.bytes, this.length);
+		}
+
+		/**
+		 * Reads the next varint.
+		 *
+		 * @return the value read
+		 */
+		private int readVarint() {
+			int value = 0;
+			int shift = 0;
+			byte current;
+
+			do {
+				current = buffer.get(this.offset++);
+				value |= (current & 0x7F) << shift;
+				shift += 7;
+			} while (current < 0);
+
+			return value;
+		}
+	}
+}
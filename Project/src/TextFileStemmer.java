@@ -30,12 +30,11 @@ public class TextFileStemmer {
 	 * @param line the line of words to clean, split, and stem
 	 * @return a sorted set of unique cleaned and stemmed words
 	 *
-	 * @see SnowballStemmer
-	 * @see #DEFAULT
+	 * @see CachingStemmer#ENGLISH
 	 * @see #uniqueStems(String, Stemmer)
 	 */
 	public static TreeSet<String> uniqueStems(String line) {
-		return uniqueStems(line, new SnowballStemmer(DEFAULT));
+		return uniqueStems(line, CachingStemmer.ENGLISH);
 	}
 
 	/**
@@ -47,16 +46,27 @@ public class TextFileStemmer {
 	 * @return a sorted set of unique cleaned and stemmed words
 	 *
 	 * @see Stemmer#stem(CharSequence)
-	 * @see TextParser#parse(String)
+	 * @see TextTokenizer
 	 */
 	public static TreeSet<String> uniqueStems(String line, Stemmer stemmer) {
 		TreeSet<String> stemmed = new TreeSet<>();
+		addStems(line, stemmer, new TextTokenizer(), stemmed);
+		return stemmed;
+	}
 
-		for (String word : TextParser.parse(line)) {
-			stemmed.add(stemmer.stem(word).toString());
+	/**
+	 * Adds the cleaned and stemmed words of a line to a set.
+	 *
+	 * @param line      the line of words to clean, split, and stem
+	 * @param stemmer   the stemmer to use
+	 * @param tokenizer the tokenizer to split the line with
+	 * @param stemmed   the set to add the stems to
+	 */
+	private static void addStems(String line, Stemmer stemmer, TextTokenizer tokenizer, TreeSet<String> stemmed) {
+		tokenizer.reset(line);
+		while (tokenizer.next()) {
+			stemmed.add(stemmer.stem(tokenizer.getToken()).toString());
 		}
-
-		return stemmed;
 	}
 
 	/**
@@ -68,14 +78,16 @@ public class TextFileStemmer {
 	 * @throws IOException if unable to read or parse file
 	 *
 	 * @see #uniqueStems(String)
-	 * @see TextParser#parse(String)
+	 * @see TextTokenizer
 	 */
 	public static TreeSet<String> uniqueStems(Path inputFile) throws IOException {
 		TreeSet<String> stemmed = new TreeSet<>();
 		List<String> lines = Files.readAllLines(inputFile, StandardCharsets.UTF_8);
+		Stemmer stemmer = CachingStemmer.ENGLISH;
+		TextTokenizer tokenizer = new TextTokenizer();
 
 		for (String line : lines) {
-			stemmed.addAll(uniqueStems(line));
+			addStems(line, stemmer, tokenizer, stemmed);
 		}
 		return stemmed;
 	}
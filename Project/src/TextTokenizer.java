@@ -0,0 +1,202 @@
+import java.util.Locale;
+
+/**
+ * Splits text into the same words as {@link TextParser#parse(String)}, one
+ * word at a time and into a reused buffer.
+ *
+ * Lines made only of ASCII characters, which is nearly all of them, are read
+ * in a single pass: letters are lowercased into the buffer, whitespace ends a
+ * word and everything else is dropped, just as the regular expressions of
+ * {@link TextParser} would do. ASCII has no diacritics, so such lines need no
+ * normalization. Any other line is parsed by {@link TextParser} itself, so the
+ * words are always identical.
+ *
+ * A tokenizer is not thread safe, and the current word is only valid until the
+ * next call to {@link #next()}.
+ *
+ * @author nedimazar
+ */
+public class TextTokenizer {
+
+	/**
+	 * True if the default locale lowercases ASCII letters differently, as the
+	 * Turkish and Azerbaijani ones do with the letter I.
+	 */
+	private static final boolean SPECIAL_LOCALE = !"i".equals("I".toLowerCase(Locale.getDefault()));
+
+	/**
+	 * The characters of the current word.
+	 */
+	private char[] buffer;
+
+	/**
+	 * The number of characters in the current word.
+	 */
+	private int length;
+
+	/**
+	 * The text being split, when it is ASCII.
+	 */
+	private String text;
+
+	/**
+	 * The index in the text to continue from.
+	 */
+	private int index;
+
+	/**
+	 * The words of the text, when it is not ASCII.
+	 */
+	private String[] words;
+
+	/**
+	 * The current word, as a view of the buffer.
+	 */
+	private final CharSequence token;
+
+	/**
+	 * Initializes a tokenizer with no text.
+	 */
+	public TextTokenizer() {
+		this.buffer = new char[32];
+		this.length = 0;
+		this.text = "";
+		this.index = 0;
+		this.words = null;
+		this.token = new Token();
+	}
+
+	/**
+	 * Starts splitting a new text.
+	 *
+	 * @param text the text to split
+	 */
+	public void reset(String text) {
+		this.length = 0;
+		this.index = 0;
+
+		if (!SPECIAL_LOCALE && isAscii(text)) {
+			this.text = text;
+			this.words = null;
+		} else {
+			this.text = "";
+			this.words = TextParser.parse(text);
+		}
+	}
+
+	/**
+	 * Moves to the next word.
+	 *
+	 * @return true if there was another word, false if the text is done
+	 */
+	public boolean next() {
+		this.length = 0;
+
+		if (this.words != null) {
+			if (this.index == this.words.length) {
+				return false;
+			}
+
+			String word = this.words[this.index++];
+			ensureCapacity(word.length());
+			word.getChars(0, word.length(), this.buffer, 0);
+			this.length = word.length();
+			return true;
+		}
+
+		String text = this.text;
+		int end = text.length();
+
+		while (this.index < end) {
+			char c = text.charAt(this.index++);
+
+			if (c >= 'a' && c <= 'z') {
+				append(c);
+			} else if (c >= 'A' && c <= 'Z') {
+				append((char) (c + ('a' - 'A')));
+			} else if (this.length > 0 && (c == ' ' || (c >= '\t' && c <= '\r'))) {
+				return true;
+			}
+		}
+		return this.length > 0;
+	}
+
+	/**
+	 * Returns the current word. The same object is returned every time, and it
+	 * changes whenever the tokenizer moves on.
+	 *
+	 * @return the current word
+	 */
+	public CharSequence getToken() {
+		return this.token;
+	}
+
+	/**
+	 * Checks whether every character of a text is ASCII.
+	 *
+	 * @param text the text to check
+	 * @return true if the text is ASCII
+	 */
+	private static boolean isAscii(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a character to the current word.
+	 *
+	 * @param c the character
+	 */
+	private void append(char c) {
+		ensureCapacity(this.length + 1);
+		this.buffer[this.length++] = c;
+	}
+
+	/**
+	 * Grows the buffer to hold at least some number of characters.
+	 *
+	 * @param capacity the number of characters
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > this.buffer.length) {
+			char[] grown = new char[Math.max(capacity, this.buffer.length * 2)];
+			System.arraycopy(this.buffer, 0, grown, 0, this.length);
+			this.buffer = grown;
+		}
+	}
+
+	/**
+	 * A view of the current word.
+	 *
+	 * @author nedimazar
+	 */
+	private class Token implements CharSequence {
+
+		@Override
+		public int length() {
+			return TextTokenizer.this.length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= TextTokenizer.this.length) {
+				throw new IndexOutOfBoundsException(index);
+			}
+			return TextTokenizer.this.buffer[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return new String(TextTokenizer.this.buffer, 0, TextTokenizer.this.length);
+		}
+	}
+}
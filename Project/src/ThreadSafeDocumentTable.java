@@ -0,0 +1,134 @@
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * A thread-safe version of {@link DocumentTable}. Every method holds the
+ * monitor of the table, which is only ever held for a single lookup or update.
+ *
+ * The table also remembers which documents had words added to them, so that
+ * versions of an index published along the way know which of their documents
+ * are out of date.
+ *
+ * @author nedimazar
+ */
+public class ThreadSafeDocumentTable extends DocumentTable {
+
+	/**
+	 * The ids of the documents whose word counts were updated since
+	 * {@link #takeChanged()} was last called.
+	 */
+	private BitSet changed;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public ThreadSafeDocumentTable() {
+		super();
+		this.changed = new BitSet();
+	}
+
+	/**
+	 * Returns the ids of the documents whose word counts were updated, which
+	 * happens whenever words are added to them, and starts over.
+	 *
+	 * @return the ids of the documents updated since the last call
+	 */
+	public synchronized BitSet takeChanged() {
+		BitSet changed = this.changed;
+		this.changed = new BitSet();
+		return changed;
+	}
+
+	@Override
+	public synchronized int add(String location) {
+		return super.add(location);
+	}
+
+	@Override
+	public synchronized int getId(String location) {
+		return super.getId(location);
+	}
+
+	@Override
+	public synchronized String getLocation(int id) {
+		return super.getLocation(id);
+	}
+
+	@Override
+	public synchronized int getRank(int id) {
+		return super.getRank(id);
+	}
+
+	@Override
+	public synchronized int getCount(int id) {
+		return super.getCount(id);
+	}
+
+	@Override
+	public synchronized void updateCount(int id, int position) {
+		super.updateCount(id, position);
+		this.changed.set(id);
+	}
+
+	@Override
+	public synchronized int delete(String location) {
+		return super.delete(location);
+	}
+
+	@Override
+	public synchronized boolean isDeleted(int id) {
+		return super.isDeleted(id);
+	}
+
+	@Override
+	public synchronized BitSet getDeleted() {
+		return super.getDeleted();
+	}
+
+	@Override
+	public synchronized boolean hasDeletions() {
+		return super.hasDeletions();
+	}
+
+	@Override
+	public synchronized int getTombstoneCount() {
+		return super.getTombstoneCount();
+	}
+
+	@Override
+	public synchronized int getStoredCount() {
+		return super.getStoredCount();
+	}
+
+	@Override
+	public synchronized int getLiveCount() {
+		return super.getLiveCount();
+	}
+
+	@Override
+	public synchronized double getAverageCount() {
+		return super.getAverageCount();
+	}
+
+	@Override
+	public synchronized void purge(BitSet ids) {
+		super.purge(ids);
+	}
+
+	@Override
+	public synchronized int size() {
+		return super.size();
+	}
+
+	@Override
+	public synchronized int[] read(DataInput input) throws IOException {
+		return super.read(input);
+	}
+
+	@Override
+	public synchronized Map<String, Integer> getCounts() {
+		return super.getCounts();
+	}
+}
@@ -1,5 +1,18 @@
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import opennlp.tools.stemmer.Stemmer;
 
 /**
  * @author nedimazar
@@ -7,6 +20,22 @@ import java.nio.file.Path;
  */
 public class ThreadSafeIndexBuilder extends InvertedIndexBuilder {
 
+	/**
+	 * The default size in bytes from which files are read in chunks.
+	 */
+	public static final long DEFAULT_CHUNK_THRESHOLD = 64L << 20;
+
+	/**
+	 * The size in bytes a file is split into chunks of, before moving each split
+	 * to the end of its line.
+	 */
+	private static final long CHUNK_SIZE = 8L << 20;
+
+	/**
+	 * The number of files or chunks per thread that may wait in the work queue
+	 * while the directory walk goes on.
+	 */
+	private static final int PENDING_PER_THREAD = 16;
 
 	/**
 	 * The Inverted Index to populate
@@ -18,6 +47,11 @@ public class ThreadSafeIndexBuilder extends InvertedIndexBuilder {
 	 */
 	private final int numThreads;
 
+	/**
+	 * The size in bytes from which files are read in chunks.
+	 */
+	private final long chunkThreshold;
+
 	/**
 	 * Constructor for the builder class
 	 *
@@ -25,9 +59,22 @@ public class ThreadSafeIndexBuilder extends InvertedIndexBuilder {
 	 * @param numThreads the number of threads to use
 	 */
 	public ThreadSafeIndexBuilder (ThreadSafeInvertedIndex invertedIndex, int numThreads){
+		this(invertedIndex, numThreads, DEFAULT_CHUNK_THRESHOLD);
+	}
+
+	/**
+	 * Constructor for the builder class
+	 *
+	 * @param invertedIndex The index to use
+	 * @param numThreads the number of threads to use
+	 * @param chunkThreshold the size in bytes from which files are memory-mapped
+	 *        and read in chunks by several threads at once
+	 */
+	public ThreadSafeIndexBuilder (ThreadSafeInvertedIndex invertedIndex, int numThreads, long chunkThreshold){
 		super(invertedIndex);
 		this.invertedIndex = invertedIndex;
 		this.numThreads = numThreads;
+		this.chunkThreshold = chunkThreshold;
 	}
 
 
@@ -35,23 +82,72 @@ public class ThreadSafeIndexBuilder extends InvertedIndexBuilder {
 	/**
 	 * Adds all files in the path to the index.
 	 *
+	 * Text files are handed to the work queue as the directory walk finds them,
+	 * so indexing starts right away. Only a bounded number of them wait in the
+	 * queue at any time, and the walk pauses while it is full.
+	 *
+	 * Each worker thread adds its files to its own local index, without any
+	 * locking. Once every file is read, each worker's index is added to the
+	 * shared index in one call, all of them in parallel, so the shared index is
+	 * written to once per thread instead of once per file.
+	 *
+	 * Files of at least the chunk threshold are memory-mapped and split into
+	 * chunks of whole lines, which are stemmed in parallel like separate files.
+	 * The positions of each chunk are moved up by the number of words in the
+	 * chunks before it as soon as those are read, and the whole file is added
+	 * as one document once its last chunk is, so they are the same as when
+	 * reading the file from start to end. Only this builder reads files in
+	 * chunks; {@link InvertedIndexBuilder} reads every file whole.
+	 *
+	 * If the walk fails partway, the files read so far are still added before
+	 * the exception is thrown, so the index never holds only the large ones.
+	 *
 	 * @param path start path
 	 * @throws IOException could happen
 	 */
 	@Override
 	public void traversePath(Path path) throws IOException {
-		WorkQueue queue = new WorkQueue(numThreads);
-		for (Path currentPath : getTextFiles(path)) {
-			if (isTextFile(currentPath)) {
-				queue.execute(new Task(currentPath));
-			}
-		}
+		List<InvertedIndex> partials = Collections.synchronizedList(new ArrayList<>());
+		ThreadLocal<InvertedIndex> locals = ThreadLocal.withInitial(() -> {
+			InvertedIndex local = new InvertedIndex(this.invertedIndex.hasPositions());
+			partials.add(local);
+			return local;
+		});
+
+		WorkQueue queue = new WorkQueue(numThreads, numThreads * PENDING_PER_THREAD);
 		try {
-			queue.finish();
-		} catch (Exception e) {
-			System.out.println("The work queue encountered an error.");
+			walkTextFiles(path, (file, attributes) -> {
+				if (attributes.size() > 0 && attributes.size() >= chunkThreshold) {
+					try {
+						new ChunkedFile(file).execute(queue);
+						return;
+					} catch (IOException e) {
+						System.out.println("Problem encountered while adding file: " + file.toString());
+					}
+				}
+				queue.execute(new Task(file, locals));
+			});
+		} finally {
+			// large files already went into the index, so the rest always follows
+			try {
+				queue.finish();
+			} catch (Exception e) {
+				System.out.println("The work queue encountered an error.");
+			}
+
+			for (InvertedIndex partial : partials) {
+				queue.execute(() -> invertedIndex.addAll(partial));
+			}
+
+			try {
+				queue.finish();
+			} catch (Exception e) {
+				System.out.println("The work queue encountered an error.");
+			}
+			queue.shutdown();
+
+			invertedIndex.refresh();
 		}
-		queue.shutdown();
 	}
 
 	/**
@@ -66,25 +162,303 @@ public class ThreadSafeIndexBuilder extends InvertedIndexBuilder {
 		 */
 		private final Path path;
 
+		/**
+		 * The local index of each worker thread.
+		 */
+		private final ThreadLocal<InvertedIndex> locals;
 
 		/**
 		 * Constructor for the Task.
 		 * @param path the path to work on.
+		 * @param locals the local index of each worker thread
 		 */
-		public Task(Path path) {
+		public Task(Path path, ThreadLocal<InvertedIndex> locals) {
 			this.path = path;
+			this.locals = locals;
 		}
 
 		@Override
 		public void run() {
 			try {
-				InvertedIndex local = new InvertedIndex();
-				addPath(path, local);
-				invertedIndex.addAll(local);
-
+				addPath(path, locals.get());
 			} catch (IOException e) {
 				System.out.println("Problem encountered while adding file: " + path.toString());
 			}
 		}
 	}
+
+	/**
+	 * A large file read in chunks of whole lines by several threads at once.
+	 * Every chunk is mapped from one shared channel. As soon as a chunk and all
+	 * the chunks before it are read, its positions are merged into the
+	 * document and dropped, so only the chunks that finished ahead of an
+	 * earlier one are kept waiting.
+	 * @author nedimazar
+	 *
+	 */
+	private class ChunkedFile {
+
+		/**
+		 * Path to the file in question.
+		 */
+		private final Path path;
+
+		/**
+		 * The channel every chunk is mapped from, closed once the last chunk
+		 * is read.
+		 */
+		private final FileChannel channel;
+
+		/**
+		 * The byte offset of every chunk, followed by the size of the file.
+		 */
+		private final long[] offsets;
+
+		/**
+		 * The positions of every word in each chunk that finished before a
+		 * chunk ahead of it, counted from the start of the chunk.
+		 */
+		private final List<Map<String, PositionList>> pending;
+
+		/**
+		 * The number of words in each chunk waiting to be merged.
+		 */
+		private final int[] counts;
+
+		/**
+		 * The positions of every word in the chunks merged so far, or null if
+		 * reading a chunk failed.
+		 */
+		private Map<String, PositionList> merged;
+
+		/**
+		 * The number of words in the chunks merged so far.
+		 */
+		private int count;
+
+		/**
+		 * The number of the next chunk to merge.
+		 */
+		private int next;
+
+		/**
+		 * The number of chunks not read yet.
+		 */
+		private int remaining;
+
+		/**
+		 * Splits a file into chunks that each end at a line break.
+		 *
+		 * @param path the file to split
+		 * @throws IOException if the file cannot be read
+		 */
+		public ChunkedFile(Path path) throws IOException {
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+
+			ArrayList<Long> offsets = new ArrayList<>();
+			try {
+				long size = this.channel.size();
+				long offset = 0;
+
+				while (offset < size) {
+					offsets.add(offset);
+					offset = nextLine(this.channel, offset + CHUNK_SIZE, size);
+				}
+				offsets.add(size);
+			} catch (IOException e) {
+				this.channel.close();
+				throw e;
+			}
+
+			this.offsets = offsets.stream().mapToLong(Long::longValue).toArray();
+			this.pending = new ArrayList<>(Collections.nCopies(this.offsets.length - 1, null));
+			this.counts = new int[this.offsets.length - 1];
+			this.merged = new HashMap<>();
+			this.count = 0;
+			this.next = 0;
+			this.remaining = this.counts.length;
+		}
+
+		/**
+		 * Reads every chunk of the file on the work queue. A file that turned
+		 * out to be empty has no chunks and no words, so it is only closed.
+		 *
+		 * @param queue the queue to read the chunks on
+		 */
+		public void execute(WorkQueue queue) {
+			if (this.counts.length == 0) {
+				close();
+				return;
+			}
+
+			for (int chunk = 0; chunk < this.counts.length; chunk++) {
+				int current = chunk;
+				queue.execute(() -> read(current));
+			}
+		}
+
+		/**
+		 * Maps a chunk of the file and stems every word in it.
+		 *
+		 * @param chunk the number of the chunk
+		 */
+		private void read(int chunk) {
+			long start = this.offsets[chunk];
+			long end = this.offsets[chunk + 1];
+
+			try {
+				MappedByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+				CharBuffer text = StandardCharsets.UTF_8.newDecoder().decode(mapped);
+				HashMap<String, PositionList> positions = new HashMap<>();
+				finish(chunk, positions, stemLines(text, positions));
+			} catch (IOException e) {
+				finish(chunk, null, 0);
+			}
+		}
+
+		/**
+		 * Merges a chunk that was read, and any chunks after it that were
+		 * waiting for it, into the document. Once every chunk is read, closes
+		 * the file and adds the document to the index, unless reading a chunk
+		 * failed.
+		 *
+		 * @param chunk     the number of the chunk
+		 * @param positions the positions of every word in the chunk, or null if
+		 *                  reading it failed
+		 * @param count     the number of words in the chunk
+		 */
+		private void finish(int chunk, Map<String, PositionList> positions, int count) {
+			Map<String, PositionList> document;
+
+			synchronized (this) {
+				if (positions == null) {
+					this.merged = null;
+				} else if (this.merged != null) {
+					this.pending.set(chunk, positions);
+					this.counts[chunk] = count;
+
+					while (this.next < this.counts.length && this.pending.get(this.next) != null) {
+						merge(this.pending.set(this.next, null));
+						this.count += this.counts[this.next];
+						this.next++;
+					}
+				}
+
+				if (--this.remaining > 0) {
+					return;
+				}
+				document = this.merged;
+				this.merged = null;
+			}
+
+			close();
+
+			if (document == null) {
+				System.out.println("Problem encountered while adding file: " + this.path.toString());
+				return;
+			}
+			invertedIndex.addDocument(this.path.toString(), document, this.count);
+		}
+
+		/**
+		 * Closes the channel the chunks are mapped from.
+		 */
+		private void close() {
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				System.out.println("Problem encountered while closing file: " + this.path.toString());
+			}
+		}
+
+		/**
+		 * Moves the positions of the next chunk up by the number of words
+		 * merged so far, and adds them to the document.
+		 *
+		 * @param positions the positions of every word in the chunk
+		 */
+		private void merge(Map<String, PositionList> positions) {
+			if (this.count == 0 && this.merged.isEmpty()) {
+				this.merged = positions;
+				return;
+			}
+			for (Map.Entry<String, PositionList> entry : positions.entrySet()) {
+				this.merged.computeIfAbsent(entry.getKey(), word -> new PositionList()).addAll(entry.getValue(), this.count);
+			}
+		}
+	}
+
+	/**
+	 * Finds the start of the first line at or after an offset.
+	 *
+	 * @param channel the file
+	 * @param offset  where to start looking
+	 * @param size    the size of the file
+	 * @return the offset just past the next line feed, or the size of the file
+	 *         if there is none
+	 * @throws IOException if the file cannot be read
+	 */
+	private static long nextLine(FileChannel channel, long offset, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+		while (offset < size) {
+			buffer.clear();
+			int read = channel.read(buffer, offset);
+
+			if (read <= 0) {
+				break;
+			}
+
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return offset + i + 1;
+				}
+			}
+			offset += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Stems every word of some text, line by line, and gathers the positions of
+	 * each stem, the first word at position 1. Lines end at a line feed, a
+	 * carriage return or both, as {@link java.io.BufferedReader#readLine()} has
+	 * them.
+	 *
+	 * @param text      the text to stem
+	 * @param positions the map to add the positions of every stem to
+	 * @return the number of words in the text
+	 */
+	private static int stemLines(CharBuffer text, Map<String, PositionList> positions) {
+		Stemmer stemmer = CachingStemmer.ENGLISH;
+		TextTokenizer tokenizer = new TextTokenizer();
+		ArrayList<String> stems = new ArrayList<>();
+		char[] chars = text.array();
+		int offset = text.arrayOffset() + text.position();
+		int end = offset + text.remaining();
+		int start = offset;
+
+		for (int i = offset; i <= end; i++) {
+			char c = i < end ? chars[i] : '\n';
+
+			if (c == '\n' || c == '\r') {
+				tokenizer.reset(new String(chars, start, i - start));
+				while (tokenizer.next()) {
+					stems.add(stemmer.stem(tokenizer.getToken()).toString());
+				}
+
+				if (c == '\r' && i + 1 < end && chars[i + 1] == '\n') {
+					i++;
+				}
+				start = i + 1;
+			}
+		}
+
+		int position = 0;
+		for (String stem : stems) {
+			positions.computeIfAbsent(stem, word -> new PositionList()).add(++position);
+		}
+		return position;
+	}
 }
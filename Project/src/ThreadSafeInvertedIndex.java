@@ -4,145 +4,461 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author nedimazar
  *
  *         This is a Threadsafe version of the InvertedIndex class.
  *
+ *         Writers and readers work on different versions of the index. Writes
+ *         go into the live index: words live in a concurrent skip list map and
+ *         each word's postings guard themselves (see
+ *         {@link ThreadSafePostingList}), so threads adding different words
+ *         never wait on each other. Reads go to the latest published snapshot,
+ *         an immutable {@link SegmentedInvertedIndex} fetched with a single
+ *         volatile read, so searches never wait on writers.
+ *
+ *         A new snapshot is published by {@link #refresh()}, which waits for
+ *         writes in progress to finish so that every snapshot holds whole
+ *         calls to {@link #addAll(InvertedIndex)}. Publishing only freezes the
+ *         documents added since the last snapshot, and the documents added to
+ *         meanwhile, so writers are held off for about as long as it takes to
+ *         copy what changed. Bulk operations refresh when they are done, and
+ *         any other write makes sure a refresh runs on a background thread
+ *         within {@link #REFRESH_INTERVAL} nanoseconds, so a search never sees
+ *         the index as it was longer ago than that, even once writes stop.
+ *
+ *         Removed documents are only marked in the live index, and skipped by
+ *         the next snapshot. Their postings are purged from the live index in
+ *         the background once enough of them pile up.
+ *
  */
 public class ThreadSafeInvertedIndex extends InvertedIndex {
+
 	/**
-	 * The lock object that will be used for multithreading.
+	 * The longest time a write waits to be published, in nanoseconds.
 	 */
-	private final SimpleReadWriteLock lock;
+	public static final long REFRESH_INTERVAL = 1_000_000_000L;
+
+	/**
+	 * Shared by writers and held alone by refreshes, so that a snapshot is never
+	 * taken half way through a write.
+	 */
+	private final SimpleReadWriteLock gate;
+
+	/**
+	 * The documents of the live index.
+	 */
+	private final ThreadSafeDocumentTable table;
+
+	/**
+	 * The words whose postings changed since the last snapshot.
+	 */
+	private final Set<String> changedWords;
+
+	/**
+	 * The number of writes made to the live index.
+	 */
+	private final AtomicLong changes;
+
+	/**
+	 * Set while a refresh is waiting to run in the background, so that other
+	 * writes do not start another.
+	 */
+	private final AtomicBoolean scheduled;
+
+	/**
+	 * Set while removed documents are being purged in the background.
+	 */
+	private final AtomicBoolean purging;
+
+	/**
+	 * The latest published snapshot.
+	 */
+	private volatile Snapshot snapshot;
 
 	/**
 	 * Initializes an instance of the ThreadSafeInvertedIndex class.
 	 */
 	public ThreadSafeInvertedIndex() {
-		super();
-		lock = new SimpleReadWriteLock();
+		this(true);
 	}
 
-	@Override
-	public Set<String> getWords() {
-		lock.readLock().lock();
+	/**
+	 * Initializes an instance of the ThreadSafeInvertedIndex class that may
+	 * store only how many times each word appears in each location.
+	 *
+	 * @param positions True to store positions, false to only store counts.
+	 */
+	public ThreadSafeInvertedIndex(boolean positions) {
+		this(new ThreadSafeDocumentTable(), positions);
+	}
+
+	/**
+	 * Initializes an instance of the ThreadSafeInvertedIndex class.
+	 *
+	 * @param table     The empty table to store the documents in.
+	 * @param positions True to store positions, false to only store counts.
+	 */
+	private ThreadSafeInvertedIndex(ThreadSafeDocumentTable table, boolean positions) {
+		super(new ConcurrentSkipListMap<>(), table, positions);
+		this.gate = new SimpleReadWriteLock();
+		this.table = table;
+		this.changedWords = ConcurrentHashMap.newKeySet();
+		this.changes = new AtomicLong();
+		this.scheduled = new AtomicBoolean();
+		this.purging = new AtomicBoolean();
+		this.snapshot = new Snapshot(new SegmentedInvertedIndex(positions), 0);
+	}
+
+	/**
+	 * Publishes a snapshot holding every write finished so far. Waits for
+	 * writes in progress to finish first.
+	 */
+	public void refresh() {
+		gate.writeLock().lock();
 		try {
-			return super.getWords();
+			if (this.snapshot.version != this.changes.get()) {
+				publish();
+			}
 		} finally {
-			lock.readLock().unlock();
+			gate.writeLock().unlock();
 		}
 	}
 
+	/**
+	 * Changes how search results are scored and publishes a snapshot using the
+	 * new model straight away.
+	 */
 	@Override
-	public int size() {
-		lock.readLock().lock();
+	public void setScoringModel(ScoringModel scoring) {
+		gate.writeLock().lock();
 		try {
-			return super.size();
+			super.setScoringModel(scoring);
+			publish();
 		} finally {
-			lock.readLock().unlock();
+			gate.writeLock().unlock();
 		}
 	}
 
+	/**
+	 * Publishes a new snapshot from the last one and what changed since. Only
+	 * called while holding off every writer.
+	 */
+	private void publish() {
+		long version = this.changes.get();
+		SegmentedInvertedIndex index = this.snapshot.index.update(this, this.changedWords, this.table.takeChanged());
+
+		this.changedWords.clear();
+		this.snapshot = new Snapshot(index, version);
+	}
+
+	/**
+	 * Makes sure a refresh runs within {@link #REFRESH_INTERVAL}, starting it
+	 * on a background thread unless one is already waiting to run.
+	 */
+	private void refreshLater() {
+		if (!this.scheduled.get() && this.scheduled.compareAndSet(false, true)) {
+			Thread thread = new Thread(() -> {
+				try {
+					TimeUnit.NANOSECONDS.sleep(REFRESH_INTERVAL);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				// writes from now on are left for the next refresh to publish
+				this.scheduled.set(false);
+				refresh();
+			}, "IndexRefresh");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@Override
+	protected void wordChanged(String word) {
+		this.changedWords.add(word);
+	}
+
+	/**
+	 * Returns the snapshot to read from.
+	 *
+	 * @return the latest published snapshot
+	 */
+	private InvertedIndex read() {
+		return this.snapshot.index;
+	}
+
+	@Override
+	protected PostingList newPostingList() {
+		return new ThreadSafePostingList(hasPositions());
+	}
+
 	@Override
 	public boolean add(String word, String filename, int position) {
-		lock.writeLock().lock();
+		gate.readLock().lock();
+		boolean added;
 		try {
-			return super.add(word, filename, position);
+			added = super.add(word, filename, position);
 		} finally {
-			lock.writeLock().unlock();
+			this.changes.incrementAndGet();
+			gate.readLock().unlock();
 		}
+		refreshLater();
+		return added;
 	}
 
 	@Override
-	public Set<String> getLocations(String word) {
-		lock.readLock().lock();
+	public void addDocument(String location, Map<String, PositionList> positions, int count) {
+		gate.readLock().lock();
 		try {
-			return super.getLocations(word);
+			super.addDocument(location, positions, count);
 		} finally {
-			lock.readLock().unlock();
+			this.changes.incrementAndGet();
+			gate.readLock().unlock();
 		}
+		refreshLater();
 	}
 
 	@Override
-	public Set<Integer> getPositions(String word, String location){
-		lock.readLock().lock();
+	public void addAll(InvertedIndex other) {
+		gate.readLock().lock();
 		try {
-			return super.getPositions(word, location);
+			super.addAll(other);
 		} finally {
-			lock.readLock().unlock();
+			this.changes.incrementAndGet();
+			gate.readLock().unlock();
 		}
+		refreshLater();
 	}
 
+	/**
+	 * Marks the location as removed like any other write. Once enough
+	 * documents are removed, their postings are purged on a background thread.
+	 */
 	@Override
-	public void writeIndex(Path outputFile) throws IOException {
-		lock.readLock().lock();
+	public boolean removeLocation(String location) {
+		boolean removed;
+		gate.readLock().lock();
 		try {
-			super.writeIndex(outputFile);
+			removed = tombstone(location);
 		} finally {
-			lock.readLock().unlock();
+			this.changes.incrementAndGet();
+			gate.readLock().unlock();
 		}
+		purgeIfDue();
+		refreshLater();
+		return removed;
 	}
 
+	/**
+	 * Removes the location and adds its new contents as a single write, so
+	 * that no snapshot is ever taken with the location only half replaced.
+	 */
 	@Override
-	public Map<String, Integer> getUnmodifiableCounts() {
-		lock.readLock().lock();
+	public void replaceLocation(String location, InvertedIndex replacement) {
+		gate.readLock().lock();
 		try {
-			return super.getUnmodifiableCounts();
+			tombstone(location);
+			super.addAll(replacement);
 		} finally {
-			lock.readLock().unlock();
+			this.changes.incrementAndGet();
+			gate.readLock().unlock();
 		}
+		purgeIfDue();
+		refreshLater();
 	}
 
+	/**
+	 * Purges while holding off every writer, so that no one adds to the
+	 * postings of a word as it is found empty and removed. Searches go on
+	 * reading the last snapshot, which holds no removed documents.
+	 */
 	@Override
-	public boolean hasWord(String word) {
-		lock.readLock().lock();
+	public void purge() {
+		gate.writeLock().lock();
 		try {
-			return super.hasWord(word);
+			super.purge();
 		} finally {
-			lock.readLock().unlock();
+			gate.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Starts purging on a background thread if enough documents were removed
+	 * and no purge is running already.
+	 */
+	private void purgeIfDue() {
+		if (needsPurge() && this.purging.compareAndSet(false, true)) {
+			Thread thread = new Thread(() -> {
+				try {
+					purge();
+				} finally {
+					this.purging.set(false);
+				}
+			}, "IndexPurge");
+			thread.setDaemon(true);
+			thread.start();
 		}
 	}
 
 	@Override
-	public boolean hasLocation(String word, String location) {
-		lock.readLock().lock();
+	public void readBinary(Path inputFile) throws IOException {
+		gate.readLock().lock();
 		try {
-			return super.hasLocation(word, location);
+			super.readBinary(inputFile);
 		} finally {
-			lock.readLock().unlock();
+			this.changes.incrementAndGet();
+			gate.readLock().unlock();
 		}
+		refresh();
+	}
+
+	/**
+	 * Refreshes the snapshot and packs it into a single frozen index. Writers
+	 * are only held off while refreshing.
+	 */
+	@Override
+	public InvertedIndex freeze() {
+		refresh();
+		return read().freeze();
+	}
+
+	@Override
+	public Set<String> getWords() {
+		return read().getWords();
+	}
+
+	@Override
+	public int size() {
+		return read().size();
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		return read().getPositions(word, location);
+	}
+
+	@Override
+	public Set<String> getLocations(String word) {
+		return read().getLocations(word);
+	}
+
+	@Override
+	public SortedMap<String, Set<Integer>> getPostings(String word) {
+		return read().getPostings(word);
+	}
+
+	@Override
+	public SortedMap<String, Integer> getFrequencies(String word) {
+		return read().getFrequencies(word);
+	}
+
+	@Override
+	public void writeIndex(Path outputFile) throws IOException {
+		read().writeIndex(outputFile);
+	}
+
+	@Override
+	public void writeBinary(Path outputFile) throws IOException {
+		read().writeBinary(outputFile);
+	}
+
+	@Override
+	public void writeSegment(Path outputFile) throws IOException {
+		read().writeSegment(outputFile);
+	}
+
+	@Override
+	public Map<String, Integer> getUnmodifiableCounts() {
+		return read().getUnmodifiableCounts();
+	}
+
+	@Override
+	public boolean hasWord(String word) {
+		return read().hasWord(word);
+	}
+
+	@Override
+	public boolean hasLocation(String word, String location) {
+		return read().hasLocation(word, location);
 	}
 
 	@Override
 	public ArrayList<Result> exactSearch(Collection<String> queries) {
-		lock.readLock().lock();
-		try {
-			return super.exactSearch(queries);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read().exactSearch(queries);
 	}
 
 	@Override
 	public ArrayList<Result> partialSearch(Collection<String> queries) {
-		lock.readLock().lock();
-		try {
-			return super.partialSearch(queries);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read().partialSearch(queries);
 	}
 
 	@Override
-	public void addAll(InvertedIndex other) {
-		lock.writeLock().lock();
-		try {
-			super.addAll(other);
-		} finally {
-			lock.writeLock().unlock();
-		}
+	public ArrayList<Result> search(Collection<String> queries, boolean exact) {
+		return read().search(queries, exact);
 	}
 
+	@Override
+	public ArrayList<Result> search(Collection<String> queries, boolean exact, int k) {
+		return read().search(queries, exact, k);
+	}
+
+	@Override
+	public ArrayList<Result> conjunctiveSearch(Collection<String> queries, boolean exact) {
+		return read().conjunctiveSearch(queries, exact);
+	}
+
+	@Override
+	public ArrayList<Result> conjunctiveSearch(Collection<String> queries, boolean exact, int k) {
+		return read().conjunctiveSearch(queries, exact, k);
+	}
+
+	@Override
+	public ArrayList<Result> search(Query query, boolean exact) {
+		return read().search(query, exact);
+	}
+
+	@Override
+	public ArrayList<Result> search(Query query, boolean exact, int k) {
+		return read().search(query, exact, k);
+	}
+
+	@Override
+	public ArrayList<Result> conjunctiveSearch(Query query, boolean exact, int k) {
+		return read().conjunctiveSearch(query, exact, k);
+	}
+
+	/**
+	 * A published version of the index.
+	 */
+	private static class Snapshot {
+
+		/**
+		 * The immutable copy of the index.
+		 */
+		private final SegmentedInvertedIndex index;
+
+		/**
+		 * The number of writes the copy holds.
+		 */
+		private final long version;
+
+		/**
+		 * Initializes a snapshot.
+		 *
+		 * @param index   the immutable copy of the index
+		 * @param version the number of writes the copy holds
+		 */
+		public Snapshot(SegmentedInvertedIndex index, long version) {
+			this.index = index;
+			this.version = version;
+		}
+	}
 }
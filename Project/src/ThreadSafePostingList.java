@@ -0,0 +1,169 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * A thread-safe version of {@link PostingList}. Every method holds the monitor
+ * of the list, so threads adding to different words never wait on each other.
+ *
+ * Methods that hand out positions return copies, and iterators walk a copy of
+ * the document ids and frequencies taken when they are created, so readers
+ * never see a list half way through a change.
+ *
+ * @author nedimazar
+ */
+public class ThreadSafePostingList extends PostingList {
+
+	/**
+	 * Initializes an empty posting list.
+	 */
+	public ThreadSafePostingList() {
+		super();
+	}
+
+	/**
+	 * Initializes an empty posting list.
+	 *
+	 * @param positions true to keep positions, false to only keep frequencies
+	 */
+	public ThreadSafePostingList(boolean positions) {
+		super(positions);
+	}
+
+	@Override
+	public synchronized int size() {
+		return super.size();
+	}
+
+	@Override
+	public synchronized int getDocument(int index) {
+		return super.getDocument(index);
+	}
+
+	@Override
+	public synchronized PositionList getPositions(int index) {
+		return super.getPositions(index).copy();
+	}
+
+	@Override
+	public synchronized int getFrequency(int index) {
+		return super.getFrequency(index);
+	}
+
+	@Override
+	public synchronized int indexOf(int document) {
+		return super.indexOf(document);
+	}
+
+	@Override
+	public synchronized PositionList get(int document) {
+		PositionList positions = super.get(document);
+		return positions == null ? null : positions.copy();
+	}
+
+	/**
+	 * Returns the live positions for a document, so it should only be called by
+	 * code that already holds the monitor of this list. Use
+	 * {@link #add(int, int)} to add positions.
+	 */
+	@Override
+	public synchronized PositionList getOrAdd(int document) {
+		return super.getOrAdd(document);
+	}
+
+	@Override
+	public synchronized boolean add(int document, int position) {
+		return super.add(document, position);
+	}
+
+	@Override
+	public synchronized void addAll(PostingList other, int[] remap) {
+		super.addAll(other, remap);
+	}
+
+	@Override
+	public synchronized void add(int document, PositionList positions) {
+		super.add(document, positions);
+	}
+
+	@Override
+	public synchronized boolean removeAll(BitSet deleted) {
+		return super.removeAll(deleted);
+	}
+
+	@Override
+	public PostingIterator iterator() {
+		int[] documents;
+		int[] frequencies;
+
+		synchronized (this) {
+			documents = new int[super.size()];
+			frequencies = new int[documents.length];
+
+			for (int i = 0; i < documents.length; i++) {
+				documents[i] = super.getDocument(i);
+				frequencies[i] = super.getFrequency(i);
+			}
+		}
+
+		return new PostingIterator() {
+			/** The index of the current posting. */
+			private int index = -1;
+
+			@Override
+			public int nextDocument() {
+				this.index++;
+				return getDocument();
+			}
+
+			@Override
+			public int advance(int target) {
+				this.index = gallop(documents, this.index + 1, documents.length, target);
+				return getDocument();
+			}
+
+			@Override
+			public int getDocument() {
+				if (this.index < 0) {
+					return -1;
+				}
+				return this.index < documents.length ? documents[this.index] : NO_MORE_DOCUMENTS;
+			}
+
+			@Override
+			public int getFrequency() {
+				return frequencies[this.index];
+			}
+
+			@Override
+			public int getDocumentFrequency() {
+				return documents.length;
+			}
+		};
+	}
+
+	@Override
+	public synchronized PostingList snapshot() {
+		return super.copy();
+	}
+
+	@Override
+	public synchronized PostingList range(int from, int to) {
+		return super.range(from, to);
+	}
+
+	@Override
+	public synchronized PostingList copy() {
+		return super.copy();
+	}
+
+	@Override
+	public synchronized void compact() {
+		super.compact();
+	}
+
+	@Override
+	public synchronized void write(DataOutput output) throws IOException {
+		super.write(output);
+	}
+}
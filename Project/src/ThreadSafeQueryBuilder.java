@@ -8,7 +8,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * @author nedimazar
@@ -37,10 +36,10 @@ public class ThreadSafeQueryBuilder implements QueryBuilderInterface {
 
 	/**
 	 * Constructor for the Thread Safe QueryBuilderz
-	 * @param invertedIndex the index to use
+	 * @param invertedIndex the index to use, which must be safe to search from several threads
 	 * @param numThreads number of threads
 	 */
-	public ThreadSafeQueryBuilder(ThreadSafeInvertedIndex invertedIndex, int numThreads) {
+	public ThreadSafeQueryBuilder(InvertedIndex invertedIndex, int numThreads) {
 		this.invertedIndex = invertedIndex;
 		this.querySet = new TreeMap<>();
 		this.numThreads = numThreads;
@@ -104,20 +103,21 @@ public class ThreadSafeQueryBuilder implements QueryBuilderInterface {
 
 
 	/**
-	 * Parses a Query line made up of words.
+	 * Parses a Query line made up of words, quoted phrases and NEAR/k groups.
+	 * See {@link Query}.
 	 *
 	 * @param line The line we are parsing.
 	 * @param exactSearch Wether we are doing exact search or not.
 	 */
 	@Override
 	public void parseQueryLine(String line, boolean exactSearch) {
-		TreeSet<String> queries = TextFileStemmer.uniqueStems(line);
+		Query query = Query.parse(line);
 
-		if (queries.size() == 0) {
+		if (query.isEmpty()) {
 			return;
 		}
 
-		String joined = String.join(" ", queries);
+		String joined = query.toString();
 
 		synchronized (querySet) {
 			if (querySet.containsKey(joined)) {
@@ -125,7 +125,7 @@ public class ThreadSafeQueryBuilder implements QueryBuilderInterface {
 			}
 		}
 
-		ArrayList<InvertedIndex.Result> local = invertedIndex.search(queries, exactSearch);
+		ArrayList<InvertedIndex.Result> local = invertedIndex.search(query, exactSearch);
 
 		synchronized (querySet) {
 			this.querySet.put(joined, local);
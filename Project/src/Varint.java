@@ -0,0 +1,64 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes integers as variable length quantities: seven bits per
+ * byte, least significant group first, with the high bit set on every byte but
+ * the last. Small values take a single byte.
+ *
+ * @author nedimazar
+ */
+public class Varint {
+
+	/**
+	 * Writes an integer as a varint.
+	 *
+	 * @param value  the value to write, treated as unsigned
+	 * @param output where to write
+	 * @throws IOException if unable to write
+	 */
+	public static void write(int value, DataOutput output) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+
+	/**
+	 * Reads a varint.
+	 *
+	 * @param input where to read from
+	 * @return the value read
+	 * @throws IOException if unable to read
+	 */
+	public static int read(DataInput input) throws IOException {
+		int value = 0;
+		int shift = 0;
+		byte current;
+
+		do {
+			current = input.readByte();
+			value |= (current & 0x7F) << shift;
+			shift += 7;
+		} while (current < 0);
+
+		return value;
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode a value as a varint.
+	 *
+	 * @param value the value to encode
+	 * @return the encoded length in bytes
+	 */
+	public static int length(int value) {
+		int bytes = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			bytes++;
+		}
+		return bytes;
+	}
+}
@@ -3,11 +3,10 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
+import opennlp.tools.stemmer.Stemmer;
 
 /**
  * @author nedimazar
@@ -15,11 +14,6 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  */
 public class WebCrawler  {
 
-	/**
-	 * Default stemmer.
-	 */
-	private static SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
-
 	/**
 	 * The Inverted Index to populate
 	 */
@@ -68,17 +62,19 @@ public class WebCrawler  {
 	 * @throws IOException could happen
 	 */
 	public static void addStemmed(String cleaned, String location, InvertedIndex index) throws IOException {
-		int position = 0;
+		ArrayList<String> stems = new ArrayList<>();
 		try (BufferedReader reader = new BufferedReader(new StringReader(cleaned));) {
 			String line = null;
-			SnowballStemmer stemmer = new SnowballStemmer(DEFAULT);
+			Stemmer stemmer = CachingStemmer.ENGLISH;
+			TextTokenizer tokenizer = new TextTokenizer();
 			while ((line = reader.readLine()) != null) {
-				for (String word : TextParser.parse(line)) {
-					position++;
-					index.add(stemmer.stem(word).toString(),location , position);
+				tokenizer.reset(line);
+				while (tokenizer.next()) {
+					stems.add(stemmer.stem(tokenizer.getToken()).toString());
 				}
 			}
 		}
+		index.addDocument(location, stems);
 	}
 
 
@@ -97,17 +93,7 @@ public class WebCrawler  {
 			System.out.println("The work queue encountered an error.");
 		}
 		workQueue.shutdown();
-	}
-
-	/**
-	 * Does a search oof.
-	 *
-	 * @param queries the queries
-	 * @param exact exat search?
-	 * @return a lisgt of results.
-	 */
-	public ArrayList<InvertedIndex.Result> search (Collection<String> queries, boolean exact){
-		return this.invertedIndex.search(queries, exact);
+		invertedIndex.refresh();
 	}
 
 	/**
@@ -139,7 +125,7 @@ public class WebCrawler  {
 					return;
 				}
 
-				InvertedIndex local = new InvertedIndex();
+				InvertedIndex local = new InvertedIndex(invertedIndex.hasPositions());
 				addStemmed(htmlCleaner.getHtml(), url.toString(), local);
 				invertedIndex.addAll(local);
 
@@ -25,6 +25,9 @@ public class WorkQueue {
 	/** Queue of pending work requests. */
 	private final LinkedList<Runnable> queue;
 
+	/** The most work requests that may wait in the queue. */
+	private final int capacity;
+
 	/** Used to signal the queue should be shutdown. */
 	private volatile boolean shutdown;
 
@@ -47,7 +50,22 @@ public class WorkQueue {
 	 * @param threads number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
+		this(threads, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads, that holds at
+	 * most some number of waiting work requests. Adding a request to a full
+	 * queue waits until a worker takes one out, so a producer that finds work
+	 * faster than it can be done does not run out of memory. Work requests must
+	 * then not add more work themselves, or every worker could end up waiting.
+	 *
+	 * @param threads  number of worker threads; should be greater than 1
+	 * @param capacity the most work requests that may wait in the queue
+	 */
+	public WorkQueue(int threads, int capacity) {
 		this.queue = new LinkedList<Runnable>();
+		this.capacity = capacity;
 		this.workers = new PoolWorker[threads];
 		this.shutdown = false;
 		this.pending = 0;
@@ -60,13 +78,21 @@ public class WorkQueue {
 
 	/**
 	 * Adds a work request to the queue. A thread will process this request when
-	 * available.
+	 * available. Waits first while the queue is full.
 	 *
 	 * @param r work request (in the form of a {@link Runnable} object)
 	 */
 	public void execute(Runnable r) {
 		incrementPending();
 		synchronized (queue) {
+			while (queue.size() >= capacity && !shutdown) {
+				try {
+					queue.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
 			queue.addLast(r);
 			queue.notifyAll();
 		}
@@ -152,6 +178,10 @@ public class WorkQueue {
 						break;
 					} else {
 						r = queue.removeFirst();
+
+						if (queue.size() == capacity - 1) {
+							queue.notifyAll();
+						}
 					}
 				}
 				try {